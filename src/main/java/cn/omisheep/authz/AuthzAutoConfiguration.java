@@ -215,13 +215,15 @@ public class AuthzAutoConfiguration {
     }
 
     @Bean
-    public PermLibraryCache permLibraryCache(Cache cache) {
-        return new PermLibraryCache(cache);
+    public PermLibraryCache permLibraryCache(Cache cache,
+                                             AuthzProperties properties) {
+        return new PermLibraryCache(cache, properties);
     }
 
     @Bean
-    public OpenAuthLibraryCache openAuthLibraryCache(Cache cache) {
-        return new OpenAuthLibraryCache(cache);
+    public OpenAuthLibraryCache openAuthLibraryCache(Cache cache,
+                                                     AuthzProperties properties) {
+        return new OpenAuthLibraryCache(cache, properties);
     }
 
     @Bean
@@ -274,9 +276,13 @@ public class AuthzAutoConfiguration {
     }
 
     @Bean("AuthzHttpFilter")
-    public FilterRegistrationBean<AuthzHttpFilter> filterRegistrationBean(AuthzProperties properties) {
+    public FilterRegistrationBean<AuthzHttpFilter> filterRegistrationBean(AuthzProperties properties,
+                                                                          AuthzExceptionHandler authzExceptionHandler) {
         FilterRegistrationBean<AuthzHttpFilter> registration = new FilterRegistrationBean<>();
-        registration.setFilter(new AuthzHttpFilter(properties.getDashboard().isEnabled()));
+        // 只有默认的处理器才在filter中直接拒绝。自定义的处理器（包括继承DefaultAuthzExceptionHandler的子类）
+        // 可能改写响应或者依赖HttpMeta，所以按精确类型判断，封禁的请求仍然交给它处理
+        registration.setFilter(new AuthzHttpFilter(properties,
+                                                   authzExceptionHandler.getClass() == DefaultAuthzExceptionHandler.class));
         registration.addUrlPatterns("/*");
         registration.setName("authzFilter");
         registration.setOrder(1);
@@ -84,6 +84,79 @@ public @interface RateLimit {
      */
     String[] associatedPatterns() default {};
 
+    /**
+     * 请求池（每个ip或者用户id的请求记录）的最大数量，小于等于0时不限制数量。
+     * <p>
+     * 超出时淘汰最不活跃的记录，处于封禁中的记录不会因为数量而被淘汰。
+     * 另外无论是否限制数量，一个记录在 window + 最长punishmentTime 内没有访问都会被清除。
+     *
+     * @return 请求池最大数量
+     * @since 1.2.14
+     */
+    long maximumPoolSize() default DEFAULT_MAXIMUM_POOL_SIZE;
+
+    long DEFAULT_MAXIMUM_POOL_SIZE = 100000;
+
+    /**
+     * 限流的计数方式，默认跟随全局配置 authz.cache.rate-limit-backend
+     *
+     * @return 限流的计数方式
+     * @since 1.2.14
+     */
+    Backend backend() default Backend.DEFAULT;
+
+    /**
+     * 限流算法，默认滑动窗口。
+     * <p>
+     * 令牌桶与GCRA的速率同样是 window 内 maxRequests 次，允许的突发为 maxRequests 次，
+     * 每个ip或者用户id只保存一到两个long，不随maxRequests增长，适合maxRequests较大的接口。
+     * 封禁、惩罚升级、{@link #minInterval()}以及{@link #associatedPatterns()}与滑动窗口一致。
+     *
+     * @return 限流算法
+     * @since 1.2.14
+     */
+    Algorithm algorithm() default Algorithm.SLIDING_WINDOW;
+
+    enum Algorithm {
+        /**
+         * 滑动窗口，保留最近 maxRequests 次请求时间，任意 window 内超过 maxRequests 次即封禁
+         */
+        SLIDING_WINDOW,
+        /**
+         * 令牌桶，容量 maxRequests，每 window 补满一次（匀速补充），令牌不足时封禁
+         */
+        TOKEN_BUCKET,
+        /**
+         * 通用信元速率算法（GCRA），只保存理论到达时间，效果与令牌桶相同
+         */
+        GCRA;
+
+        @JsonCreator
+        public static Algorithm create(String p) {
+            return valueOf(NamingUtils.humpToUnderline(p).toUpperCase(Locale.ROOT));
+        }
+    }
+
+    enum Backend {
+        /**
+         * 跟随全局配置
+         */
+        DEFAULT,
+        /**
+         * 本地计数，开启redis时通过消息同步给其他实例
+         */
+        LOCAL,
+        /**
+         * 在redis中用一个原子脚本完成窗口检查和惩罚升级，所有实例共享同一份计数。未开启redis时退化为LOCAL
+         */
+        REDIS;
+
+        @JsonCreator
+        public static Backend create(String p) {
+            return valueOf(p.toUpperCase(Locale.ROOT));
+        }
+    }
+
     enum CheckType {
         IP("ip"),
         USER_ID("userId");
@@ -2,6 +2,7 @@ package cn.omisheep.authz.core;
 
 import cn.omisheep.authz.core.auth.ipf.Blacklist;
 import cn.omisheep.authz.core.auth.ipf.Httpd;
+import cn.omisheep.authz.core.auth.ipf.RoutePolicy;
 import cn.omisheep.authz.core.auth.rpd.PermissionDict;
 import cn.omisheep.authz.core.cache.L2Cache;
 import cn.omisheep.authz.core.config.AuthzAppVersion;
@@ -24,20 +25,45 @@ public class AuthzManager extends BaseHelper {
 
     @Nullable
     public static Object op(@NonNull AuthzModifier authzModifier) {
+        Object result;
         try {
             switch (authzModifier.getTarget()) {
                 case OPEN_AUTH:
-                    return OpenAuthDict.modify(authzModifier);
+                    result = OpenAuthDict.modify(authzModifier);
+                    break;
                 case RATE:
-                    return Httpd.modify(authzModifier);
+                    result = Httpd.modify(authzModifier);
+                    break;
                 case BLACKLIST:
                     return Blacklist.modify(authzModifier);
                 default:
-                    return PermissionDict.modify(authzModifier);
+                    result = PermissionDict.modify(authzModifier);
             }
         } catch (Exception e) {
             return AuthzResult.FAIL.data();
         }
+        if (changesRoutePolicy(authzModifier, result)) RoutePolicy.rebuild();
+        return result;
+    }
+
+    /**
+     * 只有成功的写操作才需要重建路由策略，读取以及失败的修改不重建
+     */
+    private static boolean changesRoutePolicy(AuthzModifier authzModifier,
+                                              Object result) {
+        if (result == AuthzResult.FAIL) return false;
+        switch (authzModifier.getTarget()) {
+            case LOGIN:
+                return true;
+            case API:
+            case PARAMETER:
+            case RATE:
+            case OPEN_AUTH:
+                AuthzModifier.Operate operate = authzModifier.getOperate();
+                return operate != AuthzModifier.Operate.GET && operate != AuthzModifier.Operate.READ;
+            default:
+                return false;
+        }
     }
 
     @Nullable
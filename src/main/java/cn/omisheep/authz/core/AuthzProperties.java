@@ -1,5 +1,6 @@
 package cn.omisheep.authz.core;
 
+import cn.omisheep.authz.annotation.RateLimit;
 import cn.omisheep.authz.core.auth.deviced.DeviceCountInfo;
 import cn.omisheep.authz.core.codec.Decryptor;
 import cn.omisheep.authz.core.codec.RSADecryptor;
@@ -174,6 +175,26 @@ public class AuthzProperties {
          */
         private boolean bindIp = false;
 
+        /**
+         * token的压缩方式，claims较少时压缩反而会使token变长，默认GZIP。
+         * 修改后之前签发的token将无法解析
+         *
+         * @since 1.2.14
+         */
+        private Compression compression = Compression.GZIP;
+
+        /**
+         * 已验证的access token缓存数量，避免每次请求都解压、验签和反序列化，为0时不缓存。
+         * 缓存项在token过期时失效，登录状态仍由设备信息和黑名单校验
+         *
+         * @since 1.2.14
+         */
+        private long parsedTokenCacheSize = 10000;
+
+        public enum Compression {
+            GZIP, DEFLATE, NONE
+        }
+
     }
 
     @Data
@@ -267,6 +288,70 @@ public class AuthzProperties {
          */
         private String expireAfterReadTime   = "10m";
 
+        /**
+         * L2Cache本地缓存项在写入（或上次刷新）多久之后，下一次读取时异步从redis刷新，读取本身直接返回本地值。
+         * 其他实例的修改通过缓存消息同步。
+         * <p>
+         * 默认0ms，与之前一样每次读取都从redis刷新。设置为如30s时开启近端缓存模式，
+         * 可以省去大部分redis读取，但直接写入redis（不经过L2Cache）的修改最多在该时间之后才可见
+         *
+         * @since 1.2.14
+         */
+        private String refreshAfterWriteTime = "0ms";
+
+        /**
+         * 缓存命中时，距上次从PermLibrary加载用户角色超过该时间才在后台重新加载。为空或0ms时每次命中都重新加载
+         *
+         * @since 1.2.14
+         */
+        private String rolesByUserRefreshTime = "1m";
+
+        /**
+         * 同上，PermLibrary中角色的权限
+         *
+         * @since 1.2.14
+         */
+        private String permissionsByRoleRefreshTime = "5m";
+
+        /**
+         * 同上，OpenAuthLibrary中的客户端信息
+         *
+         * @since 1.2.14
+         */
+        private String clientRefreshTime = "5m";
+
+        /**
+         * 限流的默认计数方式，`@RateLimit(backend = ...)`可单独覆盖。
+         * LOCAL：本地计数，每次请求通过消息同步给其他实例；
+         * REDIS：在redis中原子地完成窗口检查和惩罚升级（需要开启redis）
+         *
+         * @since 1.2.14
+         */
+        private RateLimit.Backend rateLimitBackend = RateLimit.Backend.LOCAL;
+
+        /**
+         * LOCAL模式下，限流请求同步给其他实例时的合并发送间隔，单位 ms|s。
+         * 为0时不合并，每次请求单独发送
+         *
+         * @since 1.2.14
+         */
+        private String requestSyncInterval = "100ms";
+
+        /**
+         * 合并发送时每批的最大请求数，达到后立即发送
+         *
+         * @since 1.2.14
+         */
+        private int requestSyncBatchSize = 500;
+
+        /**
+         * 设备最后一次请求信息的合并写入间隔，每个设备在间隔内只写入最新的一条，单位 ms|s|m。
+         * 为空或0ms时每次请求都写入
+         *
+         * @since 1.2.14
+         */
+        private String requestDetailsFlushInterval = "5s";
+
     }
 
     @Data
@@ -370,6 +455,14 @@ public class AuthzProperties {
          */
         private boolean md5check = false;
 
+        /**
+         * 请求体的最大缓存字节数，只在需要请求体（如HttpMeta.getBody()）时才会缓存，超过时不缓存
+         * 小于等于0时不限制
+         *
+         * @since 1.2.14
+         */
+        private int maxBodyBufferSize = 10 * 1024 * 1024;
+
     }
 
 }
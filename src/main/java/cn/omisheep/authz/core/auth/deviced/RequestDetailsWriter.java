@@ -0,0 +1,77 @@
+package cn.omisheep.authz.core.auth.deviced;
+
+import cn.omisheep.authz.core.cache.Cache;
+import cn.omisheep.commons.util.Async;
+import cn.omisheep.commons.util.TaskBuilder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 设备最后一次请求信息的合并写入。
+ * <p>
+ * 每个设备在内存中只保留最新的一条{@link RequestDetails}，每隔interval批量写入缓存一次，
+ * 缓存的写入次数由 请求数 降低为 每个间隔内的活跃设备数。interval小于等于0时每次请求都直接写入。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public class RequestDetailsWriter {
+
+    private final Map<String, RequestDetails> pending = new ConcurrentHashMap<>();
+    private final Cache                       cache;
+    private final long                        interval;
+    private final long                        ttl;
+
+    /**
+     * @param cache    缓存
+     * @param interval 写入间隔 毫秒
+     * @param ttl      请求信息的存活时间 毫秒
+     */
+    public RequestDetailsWriter(Cache cache,
+                                long interval,
+                                long ttl) {
+        this.cache    = cache;
+        this.interval = interval;
+        this.ttl      = ttl;
+        if (interval > 0) TaskBuilder.schedule(this::flush, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void write(String requestKey,
+                      RequestDetails requestDetails) {
+        if (interval <= 0) {
+            Async.run(() -> cache.setSneaky(requestKey, requestDetails, ttl));
+            return;
+        }
+        pending.merge(requestKey, requestDetails, (old, now) -> {
+            if (old.getLastRequestTime() != null && now.getLastRequestTime() != null
+                    && old.getLastRequestTime().after(now.getLastRequestTime())) {
+                return old;
+            }
+            return now;
+        });
+    }
+
+    /**
+     * 设备被删除时丢弃还未写入的请求信息，避免写回已删除的设备
+     *
+     * @param requestKeys 请求信息的key
+     */
+    public void discard(Collection<String> requestKeys) {
+        requestKeys.forEach(pending::remove);
+    }
+
+    public void flush() {
+        if (pending.isEmpty()) return;
+        Map<String, RequestDetails> batch = new HashMap<>();
+        for (String key : pending.keySet()) {
+            RequestDetails requestDetails = pending.remove(key);
+            if (requestDetails != null) batch.put(key, requestDetails);
+        }
+        if (!batch.isEmpty()) cache.setSneaky(batch, ttl);
+    }
+
+}
@@ -0,0 +1,203 @@
+package cn.omisheep.authz.core.auth.deviced;
+
+import cn.omisheep.authz.core.config.Constants;
+import cn.omisheep.authz.core.util.RedisUtils;
+import cn.omisheep.commons.util.TimeUtils;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 用户设备索引：userId -> 该用户已登录设备的tid，以及所有已登录的userId。
+ * <p>
+ * 设备key与请求信息key都可以由 userId + tid 拼出，所以登录数量限制、设备列表、注销全部设备时
+ * 只需读取该用户的索引，不再需要 scan 整个keyspace。
+ * <p>
+ * 开启redis时索引为zset（member为tid，score为设备过期时间），读取时顺带清理已过期的tid，
+ * 索引key的过期时间只会延长到其中最晚过期的设备；未开启redis时保存在本地。
+ * 设备被删除时需要同步调用{@link #remove}，设备写入是异步的，所以读取时不会根据设备是否存在来清理索引。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+@SuppressWarnings("rawtypes")
+public class UserDeviceIndex {
+
+    /**
+     * PTTL为-1表示索引中已有永久的设备，不能再加上过期时间；新建的索引同样返回-1，需要按是否已存在区分
+     */
+    private static final String ADD_SCRIPT_TEXT =
+            "local existed = redis.call('EXISTS', KEYS[1])\n" +
+            "local score = redis.call('ZSCORE', KEYS[1], ARGV[1])\n" +
+            "if not score or tonumber(score) < tonumber(ARGV[2]) then\n" +
+            "  redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])\n" +
+            "end\n" +
+            "local ttl = tonumber(ARGV[3])\n" +
+            "if ttl < 0 then redis.call('PERSIST', KEYS[1]) return 1 end\n" +
+            "local pttl = redis.call('PTTL', KEYS[1])\n" +
+            "if existed == 0 or (pttl >= 0 and pttl < ttl) then redis.call('PEXPIRE', KEYS[1], ttl) end\n" +
+            "return 1";
+
+    private static final String MIGRATION_SCRIPT_TEXT =
+            "if redis.call('SET', KEYS[1], 'running', 'NX', 'PX', ARGV[1]) then return 1 end\n" +
+            "return 0";
+
+    private static final String RANGE_SCRIPT_TEXT =
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[1])\n" +
+            "return redis.call('ZRANGE', KEYS[1], 0, -1)";
+
+    private static final String REMOVE_SCRIPT_TEXT =
+            "if #ARGV > 0 then redis.call('ZREM', KEYS[1], unpack(ARGV)) end\n" +
+            "local n = redis.call('ZCARD', KEYS[1])\n" +
+            "if n == 0 then redis.call('DEL', KEYS[1]) end\n" +
+            "return n";
+
+    private static final DefaultRedisScript<Long> ADD_SCRIPT    = new DefaultRedisScript<>(ADD_SCRIPT_TEXT, Long.class);
+    private static final DefaultRedisScript<List> RANGE_SCRIPT  = new DefaultRedisScript<>(RANGE_SCRIPT_TEXT,
+                                                                                           List.class);
+    private static final DefaultRedisScript<Long> REMOVE_SCRIPT = new DefaultRedisScript<>(REMOVE_SCRIPT_TEXT,
+                                                                                           Long.class);
+    private static final DefaultRedisScript<Long> MIGRATION_SCRIPT = new DefaultRedisScript<>(
+            MIGRATION_SCRIPT_TEXT, Long.class);
+
+    private final boolean redis;
+
+    /**
+     * 未开启redis时使用，userId -> (tid -> 过期时间)
+     */
+    private final Map<String, Map<String, Long>> local = new ConcurrentHashMap<>();
+
+    public UserDeviceIndex(boolean redis) {
+        this.redis = redis;
+    }
+
+    /**
+     * @param userId 用户id
+     * @param tid    设备的tid
+     * @param ms     设备存活时间 毫秒，小于0时永久
+     */
+    public void add(Object userId,
+                    String tid,
+                    long ms) {
+        String uid      = String.valueOf(userId);
+        long   deadline = ms < 0 ? Long.MAX_VALUE : TimeUtils.nowTime() + ms;
+        if (!redis) {
+            local.computeIfAbsent(uid, k -> new ConcurrentHashMap<>()).merge(tid, deadline, Math::max);
+            return;
+        }
+        String score = ms < 0 ? "+inf" : String.valueOf(deadline);
+        String ttl   = String.valueOf(ms < 0 ? -1 : ms);
+        RedisUtils.eval(ADD_SCRIPT, Collections.singletonList(key(uid)), tid, score, ttl);
+        RedisUtils.eval(ADD_SCRIPT, Collections.singletonList(usersKey()), uid, score, ttl);
+    }
+
+    /**
+     * @param userId 用户id
+     * @param tids   需要移除的tid
+     */
+    public void remove(Object userId,
+                       Collection<String> tids) {
+        if (tids.isEmpty()) return;
+        String uid = String.valueOf(userId);
+        if (!redis) {
+            local.computeIfPresent(uid, (k, v) -> {
+                tids.forEach(v::remove);
+                return v.isEmpty() ? null : v;
+            });
+            return;
+        }
+        Long n = RedisUtils.eval(REMOVE_SCRIPT, Collections.singletonList(key(uid)), tids.toArray(new String[0]));
+        if (n != null && n == 0) RedisUtils.eval(REMOVE_SCRIPT, Collections.singletonList(usersKey()), uid);
+    }
+
+    public void remove(Object userId,
+                       String tid) {
+        remove(userId, Collections.singletonList(tid));
+    }
+
+    /**
+     * 移除该用户的全部索引
+     *
+     * @param userId 用户id
+     */
+    public void clear(Object userId) {
+        String uid = String.valueOf(userId);
+        if (!redis) {
+            local.remove(uid);
+            return;
+        }
+        RedisUtils.Obj.del(key(uid));
+        RedisUtils.eval(REMOVE_SCRIPT, Collections.singletonList(usersKey()), uid);
+    }
+
+    /**
+     * @param userId 用户id
+     * @return 该用户未过期的设备tid
+     */
+    public Set<String> tids(Object userId) {
+        return range(String.valueOf(userId));
+    }
+
+    /**
+     * @return 有未过期设备的userId
+     */
+    public Set<String> userIds() {
+        if (!redis) {
+            long        now = TimeUtils.nowTime();
+            Set<String> set = new HashSet<>();
+            local.forEach((uid, tids) -> {
+                if (tids.values().stream().anyMatch(deadline -> deadline > now)) set.add(uid);
+            });
+            return set;
+        }
+        return range(null);
+    }
+
+    /**
+     * 为1.2.14之前登录的设备补充索引只需要执行一次，由第一个抢到标记的实例执行。
+     * 标记在执行期间带有过期时间，执行中的实例宕机后由之后启动的实例重新执行；完成后永久保留。
+     * 删除标记key即可在下次启动时重新执行
+     *
+     * @param lockMs 执行期间标记的过期时间
+     * @return 是否需要由本实例执行
+     */
+    public boolean beginMigration(long lockMs) {
+        if (!redis) return false;
+        Long r = RedisUtils.eval(MIGRATION_SCRIPT, Collections.singletonList(migrationKey()), String.valueOf(lockMs));
+        return r != null && r == 1;
+    }
+
+    public void finishMigration() {
+        if (redis) RedisUtils.Obj.set(migrationKey(), "done");
+    }
+
+    private Set<String> range(String uid) {
+        long now = TimeUtils.nowTime();
+        if (!redis) {
+            Map<String, Long> tids = local.get(uid);
+            if (tids == null) return new HashSet<>();
+            tids.values().removeIf(deadline -> deadline <= now);
+            return new HashSet<>(tids.keySet());
+        }
+        List<?> list = RedisUtils.eval(RANGE_SCRIPT, Collections.singletonList(uid == null ? usersKey() : key(uid)),
+                                       String.valueOf(now));
+        if (list == null || list.isEmpty()) return new HashSet<>();
+        Set<String> set = new HashSet<>();
+        for (Object o : list) set.add(String.valueOf(o));
+        return set;
+    }
+
+    private static String key(String uid) {
+        return Constants.USER_DEVICE_INDEX_KEY_PREFIX.get() + uid;
+    }
+
+    private static String usersKey() {
+        return Constants.USER_INDEX_KEY.get();
+    }
+
+    private static String migrationKey() {
+        return Constants.USER_INDEX_MIGRATION_KEY.get();
+    }
+
+}
@@ -96,6 +96,12 @@ public interface UserDevicesDict {
 
     // =========================   other   ========================= //
 
+    /**
+     * 记录设备的最后一次请求。
+     * 内置的 {@link UserDevicesDictByCache} 只写入内存，在请求线程中直接调用；其他实现由SuccessSlot异步调用
+     *
+     * @param httpMeta 当前请求
+     */
     void request(HttpMeta httpMeta);
 
     void deviceClean(Object userId);
@@ -11,15 +11,22 @@ import cn.omisheep.authz.core.tk.AccessToken;
 import cn.omisheep.authz.core.tk.GrantType;
 import cn.omisheep.authz.core.tk.RefreshToken;
 import cn.omisheep.authz.core.tk.TokenPair;
+import cn.omisheep.authz.core.util.LogUtils;
+import cn.omisheep.authz.core.util.RedisUtils;
 import cn.omisheep.commons.util.Async;
 import cn.omisheep.commons.util.TimeUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ApplicationContextEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -33,16 +40,66 @@ import static cn.omisheep.authz.core.auth.deviced.UserDevicesDict.*;
  * @since 1.0.0
  */
 @Slf4j
-public class UserDevicesDictByCache implements UserDevicesDict {
+public class UserDevicesDictByCache implements UserDevicesDict, ApplicationListener<ApplicationContextEvent> {
 
     private final AuthzProperties                      properties;
     private final Cache                                cache;
     private final Map<Object, CompletableFuture<Void>> cleanCache = new ConcurrentHashMap<>();
+    private final RequestDetailsWriter                 requestDetailsWriter;
+    private final UserDeviceIndex                      deviceIndex;
+    private final AtomicBoolean                        backfilled = new AtomicBoolean();
 
     public UserDevicesDictByCache(AuthzProperties properties,
                                   Cache cache) {
         this.properties = properties;
         this.cache      = cache;
+        String flushInterval = properties.getCache().getRequestDetailsFlushInterval();
+        this.requestDetailsWriter = new RequestDetailsWriter(cache, StringUtils.isEmpty(flushInterval)
+                                                                    ? 0 : TimeUtils.parseTimeValue(flushInterval),
+                                                             TimeUnit.DAYS.toMillis(2));
+        this.deviceIndex = new UserDeviceIndex(properties.getCache().isEnableRedis());
+    }
+
+    /**
+     * 启动完成后补充设备索引；关闭时写入最后一个间隔内还未写入的请求信息。
+     * ContextClosedEvent在销毁任何bean之前发布，此时缓存以及redis连接仍然可用
+     */
+    @Override
+    public void onApplicationEvent(ApplicationContextEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            if (backfilled.compareAndSet(false, true)) Async.run(this::migrate);
+        } else if (event instanceof ContextClosedEvent) {
+            try {
+                requestDetailsWriter.flush();
+            } catch (Exception e) {
+                LogUtils.error("flush request details error", e);
+            }
+        }
+    }
+
+    /**
+     * 1.2.14之前登录的设备没有写入索引，scan全部设备key并补充进索引。
+     * <p>
+     * 由{@link UserDeviceIndex#beginMigration(long)}保证所有实例只执行一次，之后的启动以及查询都不会再scan。
+     * 滚动升级期间旧实例上新登录的设备不在索引中，在重新登录之前不计入设备列表以及登录数量限制，
+     * 不影响已登录设备的鉴权；需要时删除标记key并重启即可重新补充
+     */
+    private void migrate() {
+        if (!deviceIndex.beginMigration(TimeUnit.MINUTES.toMillis(10))) return;
+        String prefix = Constants.USER_DEVICE_KEY_PREFIX.get();
+        try {
+            for (String key : RedisUtils.scan(prefix + Constants.WILDCARD)) {
+                int i = key.lastIndexOf(Constants.SEPARATOR);
+                if (!key.startsWith(prefix) || i <= prefix.length()) continue;
+                long ttl = RedisUtils.ttl(key);
+                if (ttl == -2) continue;
+                deviceIndex.add(key.substring(prefix.length(), i), key.substring(i + 1),
+                                ttl == -1 ? -1 : TimeUnit.SECONDS.toMillis(ttl));
+            }
+            deviceIndex.finishMigration();
+        } catch (Exception e) {
+            LogUtils.error("migrate user device index error", e);
+        }
     }
 
     @Override
@@ -128,7 +185,7 @@ public class UserDevicesDictByCache implements UserDevicesDict {
             String deviceType = accessToken.getDeviceType();
             String deviceId   = accessToken.getDeviceId();
             String key        = key(accessToken);
-            String rKey       = UserDevicesDict.requestKey(accessToken);
+            String tid        = accessToken.getId();
             device.setDeviceType(deviceType).setDeviceId(deviceId);
 
             if (properties.getToken().isLogoutBeforeLogin()) {
@@ -137,8 +194,10 @@ public class UserDevicesDictByCache implements UserDevicesDict {
 
             cache.set(key, device, expiredIn);
 
-            Object                  userId = accessToken.getUserId();
-            Runnable                run    = () -> clean(userId, deviceType, deviceId, key, rKey);
+            Object userId = accessToken.getUserId();
+            deviceIndex.add(userId, tid, expiredIn);
+
+            Runnable                run    = () -> clean(userId, deviceType, deviceId, tid);
             CompletableFuture<Void> future = cleanCache.get(userId);
 
             if (future == null || Async.isSuccessFuture(future)) {
@@ -157,14 +216,20 @@ public class UserDevicesDictByCache implements UserDevicesDict {
         Device device = cache.get(key, Device.class);
         if (device == null) return false;
 
-        AccessToken accessToken = tokenPair.getAccessToken();
-        Long        expiredAt   = tokenPair.getRefreshToken().getExpiresAt();
+        AccessToken  accessToken  = tokenPair.getAccessToken();
+        RefreshToken refreshToken = tokenPair.getRefreshToken();
+        Long         expiredAt    = refreshToken.getExpiresAt();
 
         device.setAccessTokenId(accessToken.getTokenId());
 
         Async.run(() -> {
-            cache.set(key(accessToken), device, expiredAt - TimeUtils.nowTime());
+            long ttl = expiredAt - TimeUtils.nowTime();
+            cache.set(key(accessToken), device, ttl);
+            deviceIndex.add(accessToken.getUserId(), accessToken.getId(), ttl);
             cache.del(key);
+            if (!StringUtils.equals(accessToken.getId(), refreshToken.getId())) {
+                deviceIndex.remove(refreshToken.getUserId(), refreshToken.getId());
+            }
         });
         return true;
     }
@@ -183,17 +248,25 @@ public class UserDevicesDictByCache implements UserDevicesDict {
     public void removeDeviceById(Object userId,
                                  String id) {
         cache.del(key(userId, id));
+        deviceIndex.remove(userId, id);
     }
 
     @Override
     public void removeAllDevice(Object userId) {
-        Async.run(() -> cache.del(cache.keys(key(userId, Constants.WILDCARD))));
+        Async.run(() -> {
+            Set<String> keys = deviceIndex.tids(userId).stream()
+                    .map(tid -> key(userId, tid)).collect(Collectors.toSet());
+            cache.del(keys);
+            deviceIndex.clear(userId);
+        });
     }
 
     @Override
     public void removeCurrentDevice() {
         try {
-            cache.del(key(AuHelper.getToken()));
+            AccessToken token = AuHelper.getToken();
+            cache.del(key(token));
+            deviceIndex.remove(token.getUserId(), token.getId());
         } catch (Exception ignored) {
         }
     }
@@ -209,58 +282,53 @@ public class UserDevicesDictByCache implements UserDevicesDict {
                              String deviceType,
                              String deviceId) {
         if (deviceType == null || deviceType.equals("")) return;
-        Map<String, Device> deviceMap = cache.get(cache.keys(key(userId, Constants.WILDCARD)), Device.class);
-        Set<String> dels = deviceMap.entrySet().stream()
+        Map<String, Device> deviceMap = devices(userId);
+        Set<String> tids = deviceMap.entrySet().stream()
                 .filter(e -> StringUtils.equals(e.getValue().getDeviceType(), deviceType))
-                .filter(e -> deviceId == null || StringUtils.equals(e.getValue().getDeviceType(), deviceId))
+                .filter(e -> deviceId == null || StringUtils.equals(e.getValue().getDeviceId(), deviceId))
                 .map(Map.Entry::getKey)
                 .collect(Collectors.toSet());
-        Async.run(() -> cache.del(dels));
+        if (tids.isEmpty()) return;
+        Async.run(() -> {
+            cache.del(tids.stream().map(tid -> key(userId, tid)).collect(Collectors.toSet()));
+            deviceIndex.remove(userId, tids);
+        });
     }
 
     @Override
     public DeviceDetails getDevice(Object userId,
                                    String deviceType,
                                    String deviceId) {
-        Set<String> keys = cache.keys(key(userId, Constants.WILDCARD));
-        if (keys.isEmpty()) return null;
-        Map<String, Device> deviceMap = cache.get(keys, Device.class);
+        Map<String, Device> deviceMap = devices(userId);
+        if (deviceMap.isEmpty()) return null;
         Optional<Map.Entry<String, Device>> _item = deviceMap.entrySet().stream()
                 .filter(d -> equalsDeviceByTypeAndId(d.getValue(), deviceType, deviceId))
                 .findAny();
         if (!_item.isPresent()) {
             return null;
         } else {
-            Supplier<RequestDetails> requestDetailsSupplier = () -> {
-                String[] split = _item.get().getKey().split(Constants.SEPARATOR);
-                return cache.get(requestKey(userId, split[split.length - 1]),
-                                 RequestDetails.class);
-            };
+            Supplier<RequestDetails> requestDetailsSupplier = () -> cache.get(requestKey(userId, _item.get().getKey()),
+                                                                              RequestDetails.class);
             return new DeviceDetails().setDevice(_item.get().getValue()).setSupplier(requestDetailsSupplier);
         }
     }
 
     @Override
     public List<Object> listUserId() {
-        Set<String> keys = cache.keys(key(Constants.WILDCARD, Constants.WILDCARD));
-        if (keys.isEmpty()) return new ArrayList<>(0);
-        return keys.stream().map(key -> AuthzContext.createUserId(key.split(Constants.SEPARATOR)[4]))
-                .distinct().collect(Collectors.toList());
+        Set<String> userIds = deviceIndex.userIds();
+        if (userIds.isEmpty()) return new ArrayList<>(0);
+        return userIds.stream().map(AuthzContext::createUserId).collect(Collectors.toList());
     }
 
     @Override
     public List<DeviceDetails> listDevicesByUserId(Object userId) {
-        Set<String> keys = cache.keys(key(userId, Constants.WILDCARD));
-        if (keys.isEmpty()) return new ArrayList<>(0);
-        Map<String, Device> deviceMap = cache.get(keys, Device.class);
+        Map<String, Device> deviceMap = devices(userId);
+        if (deviceMap.isEmpty()) return new ArrayList<>(0);
 
         ArrayList<DeviceDetails> deviceDetails = new ArrayList<>();
-        deviceMap.forEach((k, v) -> {
-            Supplier<RequestDetails> requestDetailsSupplier = () -> {
-                String[] split = k.split(Constants.SEPARATOR);
-                return cache.get(requestKey(userId, split[split.length - 1]),
-                                 RequestDetails.class);
-            };
+        deviceMap.forEach((tid, v) -> {
+            Supplier<RequestDetails> requestDetailsSupplier = () -> cache.get(requestKey(userId, tid),
+                                                                              RequestDetails.class);
             deviceDetails.add(new DeviceDetails().setDevice(v).setSupplier(requestDetailsSupplier));
         });
         deviceDetails.sort((v1, v2) -> v2.getLastRequestTime().compareTo(v1.getLastRequestTime()));
@@ -273,18 +341,19 @@ public class UserDevicesDictByCache implements UserDevicesDict {
         if ((userId + "").contains("*") || (userId + "").contains("?")) {
             return new ArrayList<>();
         }
-        return _listActiveUserDevices(requestKey(userId, Constants.WILDCARD), ms);
+        return _listActiveUserDevices(deviceIndex.tids(userId).stream()
+                                              .map(tid -> requestKey(userId, tid))
+                                              .collect(Collectors.toSet()), ms);
     }
 
     @Override
     public List<DeviceDetails> listActiveUserDevices(long ms) {
-        return _listActiveUserDevices(requestKey(Constants.WILDCARD, Constants.WILDCARD), ms);
+        return _listActiveUserDevices(cache.keys(requestKey(Constants.WILDCARD, Constants.WILDCARD)), ms);
     }
 
-    private List<DeviceDetails> _listActiveUserDevices(String requestKey,
+    private List<DeviceDetails> _listActiveUserDevices(Set<String> rKeys,
                                                        long ms) {
-        long        now   = TimeUtils.nowTime();
-        Set<String> rKeys = cache.keys(requestKey);
+        long now = TimeUtils.nowTime();
         if (rKeys.isEmpty()) return new ArrayList<>(0);
 
         Map<String, RequestDetails> requestDetailsMap = cache.get(rKeys, RequestDetails.class);
@@ -310,7 +379,7 @@ public class UserDevicesDictByCache implements UserDevicesDict {
                         .setIp(httpMeta.getIp())
                         .setDeviceType(token.getDeviceType())
                         .setDeviceId(token.getDeviceId());
-                Async.run(() -> cache.setSneaky(requestKey(token), requestDetails, 2, TimeUnit.DAYS));
+                requestDetailsWriter.write(requestKey(token), requestDetails);
             }
         } catch (Exception ignored) {
         }
@@ -327,11 +396,11 @@ public class UserDevicesDictByCache implements UserDevicesDict {
             if (device != null) {
                 reference.set(() -> clean(userId,
                                           device.getDeviceType(), device.getDeviceId(),
-                                          key(token), requestKey(token)));
+                                          token.getId()));
 
             }
         } else {
-            reference.set(() -> clean(userId, null, null, null, null));
+            reference.set(() -> clean(userId, null, null, null));
         }
 
         CompletableFuture<Void> future = cleanCache.get(userId);
@@ -344,37 +413,36 @@ public class UserDevicesDictByCache implements UserDevicesDict {
 
     }
 
+    /**
+     * @param tid 当前登录设备的tid，不参与清理
+     */
     private void clean(Object userId,
                        String deviceType,
                        String deviceId,
-                       String key,
-                       String rKey) {
+                       String tid) {
         AuthzProperties.UserConfig userConfig = usersConfig.getOrDefault(userId, properties.getUser());
 
         Set<String> delKeys = new HashSet<>();
 
-        Set<String> keys  = new HashSet<>();
-        Set<String> rKeys = new HashSet<>();
-        Async.joinAndCheck(
-                Async.combine(() -> keys.addAll(cache.keys(key(userId, Constants.WILDCARD))),
-                              () -> rKeys.addAll(cache.keys(requestKey(userId, Constants.WILDCARD)))
-                ));
+        Set<String> tids = deviceIndex.tids(userId);
+        if (tid != null) tids.remove(tid);
+        if (tids.isEmpty()) return;
 
-        if (key != null && !keys.isEmpty()) {
-            keys.remove(key);
-        }
-        if (rKey != null && !rKeys.isEmpty()) {
-            rKeys.remove(rKey);
+        Map<String, String> keys  = new HashMap<>();
+        Map<String, String> rKeys = new HashMap<>();
+        for (String t : tids) {
+            keys.put(key(userId, t), t);
+            rKeys.put(requestKey(userId, t), key(userId, t));
         }
 
-        if (keys.isEmpty()) return;
-
         Map<String, Device>         deviceMap  = new HashMap<>();
         Map<String, RequestDetails> requestMap = new HashMap<>();
 
+        // requestMap的key转换为设备key，用于按最后请求时间排序
         Async.joinAndCheck(
-                Async.combine(() -> deviceMap.putAll(cache.get(keys, Device.class)),
-                              () -> requestMap.putAll(cache.get(rKeys, RequestDetails.class))
+                Async.combine(() -> deviceMap.putAll(cache.get(keys.keySet(), Device.class)),
+                              () -> cache.get(rKeys.keySet(), RequestDetails.class)
+                                      .forEach((k, v) -> requestMap.put(rKeys.get(k), v))
                 ));
 
         if (deviceMap.isEmpty()) return;
@@ -412,11 +480,28 @@ public class UserDevicesDictByCache implements UserDevicesDict {
         }
 
         if (!delKeys.isEmpty()) {
+            List<String> delTids = delKeys.stream().map(keys::get).collect(Collectors.toList());
+            requestDetailsWriter.discard(delTids.stream().map(t -> requestKey(userId, t))
+                                                 .collect(Collectors.toList()));
             cache.del(delKeys);
-            cache.del(key(userId, Constants.WILDCARD));
+            deviceIndex.remove(userId, delTids);
         }
     }
 
+    /**
+     * @param userId 用户id
+     * @return tid -> 设备，只读取该用户索引中的设备
+     */
+    private Map<String, Device> devices(Object userId) {
+        Set<String> tids = deviceIndex.tids(userId);
+        if (tids.isEmpty()) return new HashMap<>();
+        Map<String, String> keys = new HashMap<>();
+        for (String tid : tids) keys.put(key(userId, tid), tid);
+        Map<String, Device> deviceMap = new HashMap<>();
+        cache.get(keys.keySet(), Device.class).forEach((k, v) -> deviceMap.put(keys.get(k), v));
+        return deviceMap;
+    }
+
     private void d(int max,
                    Map<String, Device> deviceMap,
                    Map<String, RequestDetails> requestDetailsMap,
@@ -434,7 +519,7 @@ public class UserDevicesDictByCache implements UserDevicesDict {
                             long           l2              = 0;
                             if (requestDetails1 != null) l1 = requestDetails1.getLastRequestTimeLong();
                             if (requestDetails2 != null) l2 = requestDetails2.getLastRequestTimeLong();
-                            return Math.toIntExact(l1 - l2);
+                            return Long.compare(l1, l2);
                         }
                 )
                 .collect(Collectors.toList());
@@ -0,0 +1,256 @@
+package cn.omisheep.authz.core.auth.ipf;
+
+import cn.omisheep.authz.annotation.RateLimit;
+import cn.omisheep.authz.core.config.Constants;
+import cn.omisheep.commons.util.TimeUtils;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import lombok.Getter;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link RateLimit#associatedPatterns()}的关联封禁。
+ * <p>
+ * 检查类型与关联的api相同的LimitMeta属于同一个关联组，组内按ip或者用户id记录解封时间。
+ * 触发封禁时只在组内写入一次，不再在每个关联api的请求池中创建记录；
+ * 每个路由在{@link RoutePolicy}中持有覆盖它的关联组，检查时每个组只查找一次，
+ * 与关联组覆盖了多少个api无关。
+ * <p>
+ * 在{@link RoutePolicy#rebuild()}时重建，关联的api不变的组保留已有的封禁。
+ * <p>
+ * 封禁生效、延长以及解除时，与之前写入每个关联api的请求池一样，对组内覆盖的每个路由各回调一次{@link RequestMeta#notifyForbid}、
+ * {@link RequestMeta#notifyRelive}。记录在解封时间到达时过期，解封的回调由过期（或者提前解除）时的移除事件发出，
+ * 不依赖于解封之后是否还有请求。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public final class AssociatedBans {
+
+    public static final Group[] NONE = new Group[0];
+
+    /**
+     * 关联组的标识 -> 关联组
+     */
+    private static volatile Map<String, Group>    groups      = Collections.emptyMap();
+    /**
+     * LimitMeta -> 关联组
+     */
+    private static volatile Map<LimitMeta, Group> byLimitMeta = Collections.emptyMap();
+    /**
+     * method:api -> 覆盖该路由的关联组
+     */
+    private static volatile Map<String, Group[]>  byRoute     = Collections.emptyMap();
+
+    private AssociatedBans() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param method 请求方法
+     * @param api    api
+     * @return 覆盖该路由的关联组
+     */
+    public static Group[] of(String method,
+                             String api) {
+        Group[] g = byRoute.get(method + Constants.SEPARATOR + api);
+        return g == null ? NONE : g;
+    }
+
+    /**
+     * 组内已有更晚的解封时间（同组的其他LimitMeta触发）时保留较晚的
+     *
+     * @param limitMeta 触发封禁的限流配置
+     * @param key       ip或者用户id
+     * @param relive    解封时间
+     * @param ip        ip
+     * @param userId    用户id
+     */
+    public static void ban(LimitMeta limitMeta,
+                           String key,
+                           long relive,
+                           String ip,
+                           Object userId) {
+        Group group = group(limitMeta);
+        if (group == null) return;
+        Ban old = group.bans.getIfPresent(key);
+        if (old != null && old.relive >= relive) return;
+        Ban ban    = new Ban(relive, ip, userId, limitMeta);
+        Ban stored = group.bans.asMap().merge(key, ban, (o, n) -> o.relive >= n.relive ? o : n);
+        if (stored == ban) {
+            group.forEachRoute((method, api) -> RequestMeta.notifyForbid(method, api, ip, userId, limitMeta, relive));
+        }
+    }
+
+    /**
+     * 只有组内记录的解封时间已经到达时才解除，同组其他LimitMeta触发的更晚的封禁不受影响。
+     * 通常记录此时已经过期，解封的回调已由移除事件发出
+     *
+     * @param limitMeta 解除封禁的限流配置
+     * @param key       ip或者用户id
+     */
+    public static void relive(LimitMeta limitMeta,
+                              String key) {
+        Group group = group(limitMeta);
+        if (group == null) return;
+        long now = TimeUtils.nowTime();
+        group.bans.asMap().computeIfPresent(key, (k, v) -> v.relive > now ? v : null);
+    }
+
+    @Nullable
+    private static Group group(LimitMeta limitMeta) {
+        if (limitMeta._getAssociatedPatterns() == null) return null;
+        Group group = byLimitMeta.get(limitMeta);
+        // LimitMeta刚被替换、还未重建时按关联组的标识查找
+        return group != null ? group : groups.get(id(limitMeta));
+    }
+
+    /**
+     * 根据当前的限流配置重建关联组以及路由到关联组的索引
+     */
+    public static synchronized void rebuild() {
+        Map<String, Group>       oldGroups      = groups;
+        Map<String, Group>       newGroups      = new HashMap<>();
+        Map<LimitMeta, Group>    newByLimitMeta = new IdentityHashMap<>();
+        Map<String, List<Group>> routes         = new HashMap<>();
+
+        Httpd.getRateLimitMetadata().forEach((api, v) -> v.values().forEach(limitMeta -> {
+            List<LimitMeta.AssociatedPattern> associatedPatterns = limitMeta._getAssociatedPatterns();
+            if (associatedPatterns == null || newByLimitMeta.containsKey(limitMeta)) return;
+            String id    = id(limitMeta);
+            Group  group = newGroups.get(id);
+            if (group == null) {
+                Group old = oldGroups.get(id);
+                group = old != null ? old : new Group(limitMeta.getCheckType());
+                newGroups.put(id, group);
+                Set<String> covered = new HashSet<>();
+                for (LimitMeta.AssociatedPattern associatedPattern : associatedPatterns) {
+                    Httpd.getIpRequestPools().forEach((path, pools) -> {
+                        if (!Httpd.match(associatedPattern.getPattern(), path)) return;
+                        for (String method : associatedPattern.getMethods()) {
+                            if (pools.containsKey(method)) covered.add(method + Constants.SEPARATOR + path);
+                        }
+                    });
+                }
+                for (String route : covered) routes.computeIfAbsent(route, r -> new ArrayList<>()).add(group);
+                group.routes = covered.toArray(new String[0]);
+            }
+            newByLimitMeta.put(limitMeta, group);
+        }));
+
+        Map<String, Group[]> newByRoute = new HashMap<>();
+        routes.forEach((route, list) -> newByRoute.put(route, list.toArray(NONE)));
+
+        groups      = Collections.unmodifiableMap(newGroups);
+        byLimitMeta = Collections.unmodifiableMap(newByLimitMeta);
+        byRoute     = Collections.unmodifiableMap(newByRoute);
+    }
+
+    private static String id(LimitMeta limitMeta) {
+        return limitMeta.getCheckType() + Constants.SEPARATOR + new TreeSet<>(limitMeta.getAssociatedPatterns());
+    }
+
+    /**
+     * 一条关联封禁，保留触发时的ip、用户id以及限流配置，解封回调时使用
+     */
+    private static final class Ban {
+        private final long      relive;
+        private final String    ip;
+        private final Object    userId;
+        private final LimitMeta limitMeta;
+
+        private Ban(long relive,
+                    String ip,
+                    Object userId,
+                    LimitMeta limitMeta) {
+            this.relive    = relive;
+            this.ip        = ip;
+            this.userId    = userId;
+            this.limitMeta = limitMeta;
+        }
+    }
+
+    /**
+     * 一个关联组，key为ip或者用户id，value为封禁，记录在解封之后过期
+     */
+    public static final class Group {
+        @Getter
+        private final    RateLimit.CheckType checkType;
+        private final    Cache<String, Ban>  bans;
+        /**
+         * 覆盖的路由，method:api
+         */
+        private volatile String[]            routes = new String[0];
+
+        private Group(RateLimit.CheckType checkType) {
+            this.checkType = checkType;
+            this.bans      = Caffeine.newBuilder()
+                    .scheduler(Scheduler.systemScheduler())
+                    .expireAfter(new Expiry<String, Ban>() {
+                        @Override
+                        public long expireAfterCreate(@NonNull String key,
+                                                      @NonNull Ban ban,
+                                                      long currentTime) {
+                            return TimeUnit.MILLISECONDS.toNanos(Math.max(ban.relive - TimeUtils.nowTime(), 0));
+                        }
+
+                        @Override
+                        public long expireAfterUpdate(@NonNull String key,
+                                                      @NonNull Ban ban,
+                                                      long currentTime,
+                                                      long currentDuration) {
+                            return expireAfterCreate(key, ban, currentTime);
+                        }
+
+                        @Override
+                        public long expireAfterRead(@NonNull String key,
+                                                    @NonNull Ban ban,
+                                                    long currentTime,
+                                                    long currentDuration) {
+                            return currentDuration;
+                        }
+                    })
+                    .removalListener((String key, Ban ban, RemovalCause cause) -> {
+                        // 被更晚的封禁替换时（REPLACED）仍处于封禁中，不回调
+                        if (ban == null || (cause != RemovalCause.EXPIRED && cause != RemovalCause.EXPLICIT)) return;
+                        forEachRoute((method, api) -> RequestMeta.notifyRelive(method, api, ban.ip, ban.userId,
+                                                                               ban.limitMeta));
+                    })
+                    .build();
+        }
+
+        /**
+         * @param key ip或者用户id
+         * @param now nowMills
+         * @return 是否处于关联封禁中
+         */
+        public boolean isBanned(String key,
+                                long now) {
+            Ban ban = bans.getIfPresent(key);
+            return ban != null && ban.relive > now;
+        }
+
+        private void forEachRoute(BiConsumer<String, String> consumer) {
+            for (String route : routes) {
+                int i = route.indexOf(Constants.SEPARATOR);
+                consumer.accept(route.substring(0, i), route.substring(i + Constants.SEPARATOR.length()));
+            }
+        }
+
+        /**
+         * @return 当前记录数（估计值）
+         */
+        public long size() {
+            return bans.estimatedSize();
+        }
+    }
+
+}
@@ -1,9 +1,16 @@
 package cn.omisheep.authz.core.auth.ipf;
 
+import cn.omisheep.authz.annotation.RateLimit;
 import cn.omisheep.authz.core.AuthzContext;
+import cn.omisheep.authz.core.AuthzProperties;
 import cn.omisheep.authz.core.ExceptionStatus;
+import cn.omisheep.authz.core.interceptor.ExceptionResponses;
+import cn.omisheep.authz.core.msg.RequestMessage;
+import cn.omisheep.authz.core.msg.RequestMessagePublisher;
 import cn.omisheep.authz.core.util.HttpUtils;
-import cn.omisheep.web.utils.BufferedServletRequestWrapper;
+import cn.omisheep.authz.core.util.IPUtils;
+import cn.omisheep.authz.core.util.LogUtils;
+import cn.omisheep.commons.util.TimeUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -13,6 +20,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import static cn.omisheep.authz.core.config.Constants.*;
 import static cn.omisheep.authz.core.util.FormatUtils.isIgnoreSuffix;
@@ -25,10 +34,27 @@ import static cn.omisheep.authz.core.util.FormatUtils.isIgnoreSuffix;
 @SuppressWarnings("all")
 public class AuthzHttpFilter extends OncePerRequestFilter {
 
-    private final boolean isDashboard;
+    private final boolean                    isDashboard;
+    private final int                        maxBodyBufferSize;
+    private final AuthzProperties            properties;
+    /**
+     * 使用默认的AuthzExceptionHandler时，封禁的请求在filter中直接拒绝
+     */
+    private final boolean                    fastReject;
+    private final RequestMessagePublisher    publisher;
+    /**
+     * 在filter中拒绝的请求不逐条打印日志，每秒最多汇总打印一次
+     */
+    private final AtomicLong                 lastWarnTime = new AtomicLong();
+    private final LongAdder                  rejected     = new LongAdder();
 
-    public AuthzHttpFilter(boolean isDashboard) {
-        this.isDashboard = isDashboard;
+    public AuthzHttpFilter(AuthzProperties properties,
+                           boolean fastReject) {
+        this.properties           = properties;
+        this.isDashboard          = properties.getDashboard().isEnabled();
+        this.maxBodyBufferSize    = properties.getSys().getMaxBodyBufferSize();
+        this.fastReject           = fastReject;
+        this.publisher            = RequestMessagePublisher.of(properties.getCache());
     }
 
 
@@ -36,22 +62,27 @@ public class AuthzHttpFilter extends OncePerRequestFilter {
     public void doFilterInternal(HttpServletRequest rrequest,
                                  HttpServletResponse response,
                                  FilterChain filterChain) throws ServletException, IOException {
+        String uri         = rrequest.getRequestURI();
+        String servletPath = rrequest.getServletPath();
+
+        boolean ignore = isIgnoreSuffix(uri, SUFFIX) || (isDashboard && (servletPath.equals(
+                DASHBOARD_LOGO) || servletPath.startsWith(DASHBOARD_API_PREFIX) || servletPath.startsWith(
+                DASHBOARD_STATIC_PREFIX) || servletPath.startsWith(DASHBOARD_HTML)));
+
+        String api = ignore ? null : Httpd.getPattern(rrequest.getMethod(), servletPath);
+        if (api != null && fastReject && reject(rrequest, response, api)) return;
+
         HttpServletRequest request;
         if (StringUtils.startsWithIgnoreCase(rrequest.getContentType(), "multipart/")) {
             request = rrequest;
         } else {
-            request = new BufferedServletRequestWrapper(rrequest);
+            request = new LazyBodyRequestWrapper(rrequest, maxBodyBufferSize);
         }
 
-        String uri         = request.getRequestURI();
-        String servletPath = request.getServletPath();
-
         HttpUtils.currentRequest.set(request);
         HttpUtils.currentResponse.set(response);
 
-        if (isIgnoreSuffix(uri, SUFFIX) || (isDashboard && (servletPath.equals(
-                DASHBOARD_LOGO) || servletPath.startsWith(DASHBOARD_API_PREFIX) || servletPath.startsWith(
-                DASHBOARD_STATIC_PREFIX) || servletPath.startsWith(DASHBOARD_HTML)))) {
+        if (ignore) {
             HttpMeta httpMeta = new HttpMeta(request, null, uri);
             request.setAttribute(HTTP_META, httpMeta);
             filterChain.doFilter(request, response);
@@ -59,15 +90,74 @@ public class AuthzHttpFilter extends OncePerRequestFilter {
             return;
         }
 
-        String   api      = Httpd.getPattern(request.getMethod(), servletPath);
         HttpMeta httpMeta = new HttpMeta(request, api == null ? servletPath : api, servletPath);
         if (api == null) {
             httpMeta.error(ExceptionStatus.MISMATCHED_URL);
+        } else {
+            httpMeta.setRoutePolicy(RoutePolicy.of(api, request.getMethod()));
         }
         AuthzContext.currentHttpMeta.set(httpMeta);
         request.setAttribute(HTTP_META, httpMeta);
         filterChain.doFilter(request, response);
     }
 
-}
+    /**
+     * 在进入spring mvc之前拒绝黑名单中的ip、ip段，以及本地计数下被封禁（包括关联封禁）的ip。
+     * 只对匹配到api的请求生效，与BlacklistSlot、RateLimitSlot的范围一致，未匹配的请求仍按MISMATCHED_URL处理。
+     * 只做常数次查找，不构造HttpMeta、不缓存请求体，日志按秒汇总；
+     * 需要token才能判断的用户黑名单、redis计数的封禁仍由slot处理
+     *
+     * @return 是否已拒绝
+     */
+    private boolean reject(HttpServletRequest request,
+                           HttpServletResponse response,
+                           String api) throws IOException {
+        String method = request.getMethod();
+        if ("OPTIONS".equals(method)) return false;
+        String ip = IPUtils.getIp(request);
+        long   now = TimeUtils.nowTime();
+        if (!Blacklist.check(ip)) {
+            warn("请求拒绝", method, api, ip, now);
+            ExceptionResponses.write(response, ExceptionStatus.REQUEST_EXCEPTION,
+                                     properties.getResponse().isAlwaysOk());
+            return true;
+        }
+        RoutePolicy routePolicy = RoutePolicy.of(api, method);
+        for (AssociatedBans.Group group : routePolicy.getAssociatedBans()) {
+            if (group.getCheckType() == RateLimit.CheckType.IP && group.isBanned(ip, now)) {
+                warn("请求频繁、IP封锁(关联)", method, api, ip, now);
+                ExceptionResponses.write(response, ExceptionStatus.REQUEST_REPEAT,
+                                         properties.getResponse().isAlwaysOk());
+                return true;
+            }
+        }
+        LimitMeta limitMeta = routePolicy.getLimitMeta();
+        if (limitMeta == null || limitMeta.getCheckType() != RateLimit.CheckType.IP
+                || limitMeta.isRedisBackend(properties.getCache()) || routePolicy.getIpRequestPool() == null) {
+            return false;
+        }
+        RequestMeta requestMeta = routePolicy.getIpRequestPool().get(ip);
+        if (requestMeta != null && requestMeta.isBan() && !requestMeta.enableRelive(now)) {
+            requestMeta.setLastRequestTime(now);
+            // 与RateLimitSlot一致，被拒绝的请求同样同步给其他实例
+            if (publisher != null) publisher.publish(new RequestMessage(method, api, ip, null, now));
+            warn("请求频繁、IP封锁(拒绝)", method, api, ip, now);
+            ExceptionResponses.write(response, ExceptionStatus.REQUEST_REPEAT, properties.getResponse().isAlwaysOk());
+            return true;
+        }
+        return false;
+    }
+
+    private void warn(String reason,
+                      String method,
+                      String api,
+                      String ip,
+                      long now) {
+        rejected.increment();
+        long last = lastWarnTime.get();
+        if (now - last < 1000 || !lastWarnTime.compareAndSet(last, now)) return;
+        LogUtils.warn("「{}」\t method: [{}], api: [{}] , ip : [{}] , 近1秒内filter共拒绝: [{}] ",
+                      reason, method, api, ip, rejected.sumThenReset());
+    }
 
+}
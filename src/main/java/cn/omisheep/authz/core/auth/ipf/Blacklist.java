@@ -4,16 +4,18 @@ import cn.omisheep.authz.core.AuthzManager;
 import cn.omisheep.authz.core.AuthzResult;
 import cn.omisheep.authz.core.msg.AuthzModifier;
 import cn.omisheep.authz.core.tk.AccessToken;
-import cn.omisheep.authz.support.util.IPAddress;
 import cn.omisheep.authz.support.util.IPRange;
+import cn.omisheep.authz.support.util.IPRangeTrie;
 import cn.omisheep.commons.util.TimeUtils;
 import cn.omisheep.web.entity.ResponseResult;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
 import lombok.Data;
-import orestes.bloomfilter.CountingBloomFilter;
-import orestes.bloomfilter.FilterBuilder;
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.springframework.lang.NonNull;
@@ -21,9 +23,9 @@ import org.springframework.lang.Nullable;
 
 import java.text.ParseException;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static cn.omisheep.authz.core.msg.AuthzModifier.BlacklistInfo.OP.REMOVE;
 import static cn.omisheep.authz.core.msg.AuthzModifier.BlacklistInfo.OP.UPDATE;
@@ -31,22 +33,38 @@ import static cn.omisheep.authz.core.msg.AuthzModifier.BlacklistInfo.TYPE.IP_RAN
 import static cn.omisheep.authz.core.msg.AuthzModifier.BlacklistInfo.TYPE.USER;
 
 /**
+ * 黑名单，ip以及用户均按key索引，检查时只做常数次查找。
+ * <p>
+ * 用户黑名单为 userId -> [deviceType, deviceId] -> User 两层索引。
+ * 过期由{@link #expirations}统一处理（caffeine的可变过期基于时间轮），到期后从对应索引中移除，
+ * 检查时同样会判断是否过期，不依赖移除的及时性。
+ *
  * @author zhouxinchen[1269670415@qq.com]
  * @since 1.1.0
  */
 public class Blacklist {
 
-    private static final Set<IP>                     ipBlacklist            = new CopyOnWriteArraySet<>();
-    private static final CountingBloomFilter<String> ipBlacklistBloomFilter = new FilterBuilder(1000,
-                                                                                                0.001).countingBits(8)
-            .buildCountingBloomFilter();
+    private static final Map<String, IP> ipBlacklist = new ConcurrentHashMap<>();
 
-    private static final Set<User>                   userBlacklist            = new CopyOnWriteArraySet<>();
-    private static final CountingBloomFilter<String> userBlacklistBloomFilter = new FilterBuilder(1000,
-                                                                                                  0.001).countingBits(8)
-            .buildCountingBloomFilter();
+    private static final Map<Object, Map<List<String>, User>> userBlacklist = new ConcurrentHashMap<>();
 
-    private static final Set<IPRangeDeny> ipRangeBlacklist = new CopyOnWriteArraySet<>();
+    private static final Map<String, IPRangeDeny> ipRangeBlacklist = new ConcurrentHashMap<>();
+
+    /**
+     * ipRangeBlacklist的前缀树，ipRangeBlacklist变化后重建
+     */
+    private static volatile IPRangeTrie<IPRangeDeny> ipRangeTrie = new IPRangeTrie<>();
+
+    /**
+     * IP/User/IPRangeDeny -> TimeMeta
+     */
+    private static final Cache<Object, TimeMeta> expirations = Caffeine.newBuilder()
+            .expireAfter(new TimeMetaExpiry())
+            .scheduler(Scheduler.systemScheduler())
+            .removalListener((Object key, TimeMeta timeMeta, RemovalCause cause) -> {
+                if (cause == RemovalCause.EXPIRED) expire(key, timeMeta);
+            })
+            .build();
 
     public static boolean check(@NonNull String ip,
                                 @Nullable Object userId,
@@ -116,20 +134,23 @@ public class Blacklist {
                                     @Nullable String deviceType,
                                     @Nullable String deviceId,
                                     long time) {
-            User _user = new User(userId, deviceType, deviceId, TimeMeta.of(time));
-            userBlacklist.remove(_user);
-            userBlacklist.add(_user);
-            userBlacklistBloomFilter.add(userId.toString());
+            _update(new User(userId, deviceType, deviceId, TimeMeta.of(time)));
         }
 
         private static void _update(Object userId,
                                     @Nullable String deviceType,
                                     @Nullable String deviceId,
                                     Date endDate) {
-            User _user = new User(userId, deviceType, deviceId, TimeMeta.of(endDate));
-            userBlacklist.remove(_user);
-            userBlacklist.add(_user);
-            userBlacklistBloomFilter.add(userId.toString());
+            _update(new User(userId, deviceType, deviceId, TimeMeta.of(endDate)));
+        }
+
+        private static void _update(User user) {
+            userBlacklist.compute(user.userId, (k, devices) -> {
+                if (devices == null) devices = new ConcurrentHashMap<>();
+                devices.put(deviceKey(user.deviceType, user.deviceId), user);
+                return devices;
+            });
+            expirations.put(user, user.timeMeta);
         }
 
         public static void update(Object userId,
@@ -160,8 +181,31 @@ public class Blacklist {
         private static void _remove(Object userId,
                                     @Nullable String deviceType,
                                     @Nullable String deviceId) {
-            userBlacklist.remove(new User(userId, deviceType, deviceId, null));
-            userBlacklistBloomFilter.remove(userId.toString());
+            userBlacklist.computeIfPresent(userId, (k, devices) -> {
+                devices.remove(deviceKey(deviceType, deviceId));
+                return devices.isEmpty() ? null : devices;
+            });
+            expirations.invalidate(new User(userId, deviceType, deviceId, null));
+        }
+
+        private static void _expire(User user,
+                                    TimeMeta timeMeta) {
+            userBlacklist.computeIfPresent(user.userId, (k, devices) -> {
+                devices.computeIfPresent(deviceKey(user.deviceType, user.deviceId),
+                                         (dk, current) -> current.timeMeta == timeMeta ? null : current);
+                return devices.isEmpty() ? null : devices;
+            });
+        }
+
+        private static List<String> deviceKey(@Nullable String deviceType,
+                                              @Nullable String deviceId) {
+            return Arrays.asList(deviceType, deviceId);
+        }
+
+        @Nullable
+        private static User active(@Nullable User user) {
+            if (user == null || user.timeMeta.relive()) return null;
+            return user;
         }
 
         public static void remove(Object userId,
@@ -177,65 +221,42 @@ public class Blacklist {
         public static User getDevice(Object userId,
                                      @Nullable String deviceType,
                                      @Nullable String deviceId) {
-            return userBlacklist.stream()
-                    .filter(u -> u.userId.equals(userId)
-                            && StringUtils.equals(u.deviceType, deviceType) && StringUtils.equals(
-                            u.deviceId, deviceId))
-                    .findFirst()
-                    .orElse(null);
+            Map<List<String>, User> devices = userBlacklist.get(userId);
+            if (devices == null) return null;
+            return active(devices.get(deviceKey(deviceType, deviceId)));
         }
 
         public static User getUser(Object userId) {
-            return list(userId).stream()
-                    .filter(v -> v.getDeviceType() == null && v.getDeviceId() == null).findAny().orElse(null);
+            return getDevice(userId, null, null);
         }
 
         public static Set<User> list(Object userId) {
-            HashSet<User> users = new HashSet<>();
-            userBlacklist.removeIf(u -> {
-                if (u.timeMeta.relive()) {
-                    return true;
-                } else {
-                    if (u.userId.equals(userId)) {
-                        users.add(u);
-                    }
-                    return false;
-                }
-            });
-            return users;
+            Map<List<String>, User> devices = userBlacklist.get(userId);
+            if (devices == null) return new HashSet<>();
+            return devices.values().stream().filter(u -> !u.timeMeta.relive()).collect(Collectors.toSet());
         }
 
         public static Set<User> list() {
-            return Collections.unmodifiableSet(userBlacklist);
+            return Collections.unmodifiableSet(userBlacklist.values()
+                                                       .stream()
+                                                       .flatMap(devices -> devices.values().stream())
+                                                       .filter(u -> !u.timeMeta.relive())
+                                                       .collect(Collectors.toSet()));
         }
 
+        /**
+         * 依次检查 用户、用户+设备类型、用户+设备类型+设备id 三个粒度的封禁
+         */
         public static boolean check(@Nullable Object userId,
                                     @Nullable String deviceType,
                                     @Nullable String deviceId) {
             if (userId == null) return true;
-            if (userBlacklistBloomFilter.contains(userId.toString())) {
-                Set<User> list = list(userId);
-                boolean hit = list.stream().anyMatch(user -> {
-                    if (user.timeMeta.relive()) return false;
-                    if (user.deviceType == null && user.deviceId == null) {
-                        return true;
-                    } else if (user.deviceType != null && user.deviceId != null) {
-                        return StringUtils.equals(user.deviceType, deviceType) && StringUtils.equals(user.deviceId,
-                                                                                                     deviceId);
-                    } else if (user.deviceType != null) {
-                        return StringUtils.equals(user.deviceType, deviceType);
-                    }
-                    return false;
-                });
-                for (User user : list) {
-                    if (user.timeMeta.relive()) {
-                        userBlacklist.remove(user);
-                    }
-                }
-                if (list.isEmpty()) userBlacklistBloomFilter.remove(userId.toString());
-                return !hit;
-            }
-            return true;
+            Map<List<String>, User> devices = userBlacklist.get(userId);
+            if (devices == null) return true;
+            if (active(devices.get(deviceKey(null, null))) != null) return false;
+            if (deviceType == null) return true;
+            if (active(devices.get(deviceKey(deviceType, null))) != null) return false;
+            return deviceId == null || active(devices.get(deviceKey(deviceType, deviceId))) == null;
         }
 
     }
@@ -269,18 +290,17 @@ public class Blacklist {
 
         private static void _update(String ip,
                                     long time) {
-            IP _ip = new IP(ip, TimeMeta.of(time));
-            ipBlacklist.remove(_ip);
-            ipBlacklist.add(_ip);
-            ipBlacklistBloomFilter.add(ip);
+            _update(new IP(ip, TimeMeta.of(time)));
         }
 
         private static void _update(String ip,
                                     Date endDate) {
-            IP _ip = new IP(ip, TimeMeta.of(endDate));
-            ipBlacklist.remove(_ip);
-            ipBlacklist.add(_ip);
-            ipBlacklistBloomFilter.add(ip);
+            _update(new IP(ip, TimeMeta.of(endDate)));
+        }
+
+        private static void _update(IP ip) {
+            ipBlacklist.put(ip.ip, ip);
+            expirations.put(ip, ip.timeMeta);
         }
 
         public static void update(String ip,
@@ -298,8 +318,13 @@ public class Blacklist {
         }
 
         private static void _remove(String ip) {
-            ipBlacklist.remove(new IP(ip, null));
-            ipBlacklistBloomFilter.remove(ip);
+            ipBlacklist.remove(ip);
+            expirations.invalidate(new IP(ip, null));
+        }
+
+        private static void _expire(IP ip,
+                                    TimeMeta timeMeta) {
+            ipBlacklist.computeIfPresent(ip.ip, (k, current) -> current.timeMeta == timeMeta ? null : current);
         }
 
         public static void remove(String ip) {
@@ -308,32 +333,20 @@ public class Blacklist {
 
         @Nullable
         public static IP get(String ip) {
-            AtomicReference<IP> i = new AtomicReference<>();
-            ipBlacklist.removeIf(o -> {
-                if (o.ip.equals(ip)) i.set(o);
-                return o.timeMeta.relive();
-            });
-            return i.get();
+            IP _ip = ipBlacklist.get(ip);
+            if (_ip == null || _ip.timeMeta.relive()) return null;
+            return _ip;
         }
 
         public static boolean check(String ip) {
-            if (ipBlacklistBloomFilter.contains(ip)) {
-                IP _ip = get(ip);
-                if (_ip == null) {return true;} else {
-                    if (_ip.timeMeta.relive()) {
-                        ipBlacklistBloomFilter.remove(ip);
-                        ipBlacklist.remove(_ip);
-                        return true;
-                    } else {
-                        return false;
-                    }
-                }
-            }
-            return true;
+            return get(ip) == null;
         }
 
         public static Set<IP> list() {
-            return Collections.unmodifiableSet(ipBlacklist);
+            return Collections.unmodifiableSet(ipBlacklist.values()
+                                                       .stream()
+                                                       .filter(i -> !i.timeMeta.relive())
+                                                       .collect(Collectors.toSet()));
         }
     }
 
@@ -369,16 +382,18 @@ public class Blacklist {
 
         private static void _update(String ipRange,
                                     Date endDate) {
-            IPRangeDeny _ipRange = new IPRangeDeny(ipRange, TimeMeta.of(endDate));
-            ipRangeBlacklist.remove(_ipRange);
-            ipRangeBlacklist.add(_ipRange);
+            _update(new IPRangeDeny(ipRange, TimeMeta.of(endDate)));
         }
 
         private static void _update(String ipRange,
                                     long time) {
-            IPRangeDeny _ipRange = new IPRangeDeny(ipRange, TimeMeta.of(time));
-            ipRangeBlacklist.remove(_ipRange);
-            ipRangeBlacklist.add(_ipRange);
+            _update(new IPRangeDeny(ipRange, TimeMeta.of(time)));
+        }
+
+        private static void _update(IPRangeDeny ipRange) {
+            ipRangeBlacklist.put(ipRange.value, ipRange);
+            rebuild();
+            expirations.put(ipRange, ipRange.timeMeta);
         }
 
         public static void update(String ipRange,
@@ -392,7 +407,18 @@ public class Blacklist {
         }
 
         private static void _remove(String ipRange) {
-            ipRangeBlacklist.remove(new IPRangeDeny(ipRange, null));
+            IPRangeDeny removed = ipRangeBlacklist.remove(ipRange);
+            if (removed != null) {
+                rebuild();
+                expirations.invalidate(removed);
+            }
+        }
+
+        private static void _expire(IPRangeDeny ipRange,
+                                    TimeMeta timeMeta) {
+            ipRangeBlacklist.computeIfPresent(ipRange.value,
+                                              (k, current) -> current.timeMeta == timeMeta ? null : current);
+            rebuild();
         }
 
         public static void remove(String ipRange) {
@@ -400,19 +426,22 @@ public class Blacklist {
         }
 
         public static boolean check(String ip) {
-            AtomicBoolean hit = new AtomicBoolean(false);
-            ipRangeBlacklist.removeIf(v -> {
-                boolean relive = v.timeMeta.relive();
-                if (!relive && v.ipRange.isIPAddressInRange(new IPAddress(ip))) {
-                    hit.set(true);
-                }
-                return relive;
-            });
-            return !hit.get();
+            IPRangeTrie<IPRangeDeny> trie = ipRangeTrie;
+            if (trie.isEmpty()) return true;
+            return !trie.contains(ip, v -> !v.timeMeta.relive());
+        }
+
+        private static synchronized void rebuild() {
+            IPRangeTrie<IPRangeDeny> trie = new IPRangeTrie<>();
+            ipRangeBlacklist.values().forEach(v -> trie.add(v.ipRange, v));
+            ipRangeTrie = trie;
         }
 
         public static Set<IPRangeDeny> list() {
-            return Collections.unmodifiableSet(ipRangeBlacklist);
+            return Collections.unmodifiableSet(ipRangeBlacklist.values()
+                                                       .stream()
+                                                       .filter(i -> !i.timeMeta.relive())
+                                                       .collect(Collectors.toSet()));
         }
     }
 
@@ -451,11 +480,47 @@ public class Blacklist {
         }
     }
 
+    private static class TimeMetaExpiry implements Expiry<Object, TimeMeta> {
+        @Override
+        public long expireAfterCreate(Object key,
+                                      TimeMeta value,
+                                      long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(value._end - TimeUtils.nowTime(), 0));
+        }
+
+        @Override
+        public long expireAfterUpdate(Object key,
+                                      TimeMeta value,
+                                      long currentTime,
+                                      long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Object key,
+                                    TimeMeta value,
+                                    long currentTime,
+                                    long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    private static void expire(Object key,
+                               TimeMeta timeMeta) {
+        if (key instanceof IP) {
+            IP._expire((IP) key, timeMeta);
+        } else if (key instanceof User) {
+            User._expire((User) key, timeMeta);
+        } else if (key instanceof IPRangeDeny) {
+            IPRangeDeny._expire((IPRangeDeny) key, timeMeta);
+        }
+    }
+
     public static Map<String, Object> readAll() {
         HashMap<String, Object> map = new HashMap<>();
-        map.put("ipBlacklist", ipBlacklist);
-        map.put("userBlacklist", userBlacklist);
-        map.put("ipRangeBlacklist", ipRangeBlacklist);
+        map.put("ipBlacklist", IP.list());
+        map.put("userBlacklist", User.list());
+        map.put("ipRangeBlacklist", IPRangeDeny.list());
         return Collections.unmodifiableMap(map);
     }
 
@@ -475,7 +540,7 @@ public class Blacklist {
                         IP._remove(ip);
                         break;
                     case READ:
-                        return AuthzResult.SUCCESS.data(ipBlacklist);
+                        return AuthzResult.SUCCESS.data(IP.list());
                 }
                 break;
             case IP_RANGE:
@@ -489,7 +554,7 @@ public class Blacklist {
                         IPRangeDeny._remove(ipRange);
                         break;
                     case READ:
-                        return AuthzResult.SUCCESS.data(ipRangeBlacklist);
+                        return AuthzResult.SUCCESS.data(IPRangeDeny.list());
                 }
                 break;
             case USER:
@@ -511,7 +576,7 @@ public class Blacklist {
                         User._remove(userId, deviceType, deviceId);
                         break;
                     case READ:
-                        return AuthzResult.SUCCESS.data(userBlacklist);
+                        return AuthzResult.SUCCESS.data(User.list());
                 }
                 break;
         }
@@ -5,9 +5,9 @@ import cn.omisheep.authz.core.AuthzException;
 import cn.omisheep.authz.core.ExceptionStatus;
 import cn.omisheep.authz.core.LogLevel;
 import cn.omisheep.authz.core.auth.deviced.UserDevicesDict;
-import cn.omisheep.authz.core.auth.rpd.ParamMetadata;
+import cn.omisheep.authz.core.auth.rpd.PermBits;
 import cn.omisheep.authz.core.auth.rpd.PermRolesMeta;
-import cn.omisheep.authz.core.auth.rpd.PermissionDict;
+import cn.omisheep.authz.core.auth.rpd.RolePermissionsCache;
 import cn.omisheep.authz.core.config.AuthzAppVersion;
 import cn.omisheep.authz.core.config.Constants;
 import cn.omisheep.authz.core.helper.BaseHelper;
@@ -58,10 +58,12 @@ public class HttpMeta extends BaseHelper {
 
     private String        controller;
     private PermRolesMeta permRolesMeta;
-    private Boolean       hasApiAuth;
-    private Boolean       hasParamAuth;
-    private Boolean       requireLogin;
 
+    @JsonIgnore
+    private RoutePolicy routePolicy = RoutePolicy.NONE;
+
+    @JsonIgnore
+    private PermBits.UserBits           permBits;
     @JsonIgnore
     private HttpServletRequest          request;
     @JsonIgnore
@@ -75,7 +77,8 @@ public class HttpMeta extends BaseHelper {
 
     public HttpMeta setRoles(Set<String> roles) {
         if (roles == null) return this;
-        this.roles = roles;
+        this.roles    = roles;
+        this.permBits = null;
         return this;
     }
 
@@ -96,21 +99,25 @@ public class HttpMeta extends BaseHelper {
         return roles;
     }
 
+    /**
+     * @return 用户所有角色权限的并集，相同角色组合的用户共享同一个不可修改的集合
+     */
     @NonNull
-    @SuppressWarnings("unchecked")
     public Set<String> getPermissions() {
         if (userId == null) return new HashSet<>();
-        permissions = Optional.ofNullable(permissions).orElseGet(() -> {
-            HashSet<String> perms = new HashSet<>();
-            for (String role : Optional.of(getRoles()).orElse(new HashSet<>())) {
-                Collection<String> permissionsByRole = permLibrary.getPermissionsByRole(role);
-                if (permissionsByRole != null) perms.addAll(permissionsByRole);
-            }
-            return perms;
-        });
+        if (permissions == null) permissions = RolePermissionsCache.get(getRoles()).getPermissions();
         return permissions;
     }
 
+    /**
+     * @return 当前用户角色、权限的位图，相同角色组合的用户共享
+     */
+    @NonNull
+    public PermBits.UserBits getPermBits() {
+        if (permBits == null) permBits = RolePermissionsCache.get(getRoles()).getBits();
+        return permBits;
+    }
+
     @NonNull
     public Set<String> getScope() {
         if (token == null) return new HashSet<>();
@@ -181,7 +188,9 @@ public class HttpMeta extends BaseHelper {
 
     /**
      * post时生效
-     * 从包装过的httpRequest中读取，读取body行为只进行一次，读取之后会备份body
+     * 从包装过的httpRequest中读取，第一次调用时才会缓存请求体，之后可以重复读取
+     * 需要在请求体被其他地方以流的方式读取（如@RequestBody）之前调用，之后的读取者读到的是缓存；
+     * 请求体已经被读取，或者超过sys.maxBodyBufferSize时返回null
      *
      * @return 请求体
      */
@@ -191,6 +200,10 @@ public class HttpMeta extends BaseHelper {
         }
         if (body == null) {
             try {
+                if (request instanceof LazyBodyRequestWrapper && !((LazyBodyRequestWrapper) request).buffer()) {
+                    LogUtils.error("request body is unavailable or larger than maxBodyBufferSize");
+                    return null;
+                }
                 body = new BufferedReader(new InputStreamReader(request.getInputStream()))
                         .lines().collect(Collectors.joining(System.lineSeparator()));
             } catch (IOException e) {
@@ -228,47 +241,21 @@ public class HttpMeta extends BaseHelper {
         return false;
     }
 
-    public boolean isHasApiAuth() {
-        if (hasApiAuth != null) return hasApiAuth;
-        Map<String, PermRolesMeta> map            = PermissionDict.getRolePermission().get(api);
-        PermRolesMeta              cPermRolesMeta = PermissionDict.getControllerRolePermission().get(controller);
-        if (map == null && cPermRolesMeta == null) {
-            hasApiAuth = false;
-            return false;
-        }
-
-        if (map != null) {
-            PermRolesMeta permRolesMeta = map.get(getMethod());
-            hasApiAuth = (permRolesMeta != null && !permRolesMeta.non()) || (cPermRolesMeta != null && !cPermRolesMeta.non());
-        } else {
-            hasApiAuth = !cPermRolesMeta.non();
-        }
+    public HttpMeta setRoutePolicy(RoutePolicy routePolicy) {
+        this.routePolicy = routePolicy == null ? RoutePolicy.NONE : routePolicy;
+        return this;
+    }
 
-        return hasApiAuth;
+    public boolean isHasApiAuth() {
+        return routePolicy.isHasApiAuth();
     }
 
     public boolean isHasParamAuth() {
-        if (hasParamAuth != null) return requireLogin;
-        Map<String, Map<String, ParamMetadata>> map = PermissionDict.getParamPermission()
-                .get(api);
-        if (map == null || map.get(getMethod()) == null) {
-            hasParamAuth = false;
-            return false;
-        }
-        hasParamAuth = map.get(getMethod()).values().stream().anyMatch(ParamMetadata::hasParamAuth);
-        return hasParamAuth;
+        return routePolicy.isHasParamAuth();
     }
 
     public boolean isRequireLogin() {
-        if (requireLogin != null) return requireLogin;
-        Set<String> list     = PermissionDict.getCertificatedMetadata().get(api);
-        boolean     contains = PermissionDict.getControllerCertificatedMetadata().contains(controller);
-        if (list == null || list.isEmpty()) {
-            requireLogin = isHasApiAuth() || isHasParamAuth() || contains;
-            return requireLogin;
-        }
-        requireLogin = contains || list.contains(getMethod()) || isHasApiAuth() || isHasParamAuth();
-        return requireLogin;
+        return routePolicy.isRequireLogin();
     }
 
     public String getUri() {
@@ -5,9 +5,15 @@ import cn.omisheep.authz.core.AuthzProperties;
 import cn.omisheep.authz.core.AuthzResult;
 import cn.omisheep.authz.core.callback.RateLimitCallback;
 import cn.omisheep.authz.core.msg.AuthzModifier;
+import cn.omisheep.authz.core.msg.RequestBatchMessage;
 import cn.omisheep.authz.core.msg.RequestMessage;
 import cn.omisheep.authz.core.util.LogUtils;
-import com.fasterxml.jackson.annotation.JsonIgnore;
+import cn.omisheep.commons.util.TimeUtils;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Scheduler;
 import lombok.Getter;
 import org.springframework.aop.support.AopUtils;
 import org.springframework.context.ApplicationContext;
@@ -22,6 +28,8 @@ import org.springframework.web.util.pattern.PathPatternParser;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import static cn.omisheep.authz.annotation.RateLimit.CheckType.IP;
 import static cn.omisheep.authz.annotation.RateLimit.CheckType.USER_ID;
@@ -33,7 +41,12 @@ import static cn.omisheep.authz.core.util.MetaUtils.getPatterns;
  */
 public class Httpd {
 
-    private static final HashMap<String, PathPattern> pathMatcherMap = new HashMap<>();
+    private static final Map<String, PathPattern> pathMatcherMap = new ConcurrentHashMap<>();
+
+    /**
+     * 由pathMatcherMap编译出的路由索引，路由变化时整体替换
+     */
+    private static volatile RouteMatcher routeMatcher = RouteMatcher.EMPTY;
 
     private static final PathPatternParser pathPatternParser = new PathPatternParser();
 
@@ -63,9 +76,6 @@ public class Httpd {
     private static final Map<String, ConcurrentHashMap<String, RequestPool>> userIdRequestPools = Collections.unmodifiableMap(
             _userIdRequestPools);
 
-    @JsonIgnore
-    private static final Map<LimitMeta, List<RequestPool>> associatedIpPoolsCache = new HashMap<>();
-
     public static RequestPool getIpRequestPools(String api,
                                                 String method) {
         ConcurrentHashMap<String, RequestPool> map = _ipRequestPools.get(api);
@@ -84,8 +94,237 @@ public class Httpd {
         private static final long serialVersionUID = -1838299980303412207L;
     }
 
-    public static class RequestPool extends ConcurrentHashMap<String, RequestMeta> {
-        private static final long serialVersionUID = -284927742264879191L;
+    /**
+     * 单个api、method下的请求记录池，key为ip或者用户id。
+     * <p>
+     * 记录在空闲（{@link LimitMeta#getIdleTime()}）之后过期，封禁中的记录至少保留到解封之后；
+     * 数量超出{@link LimitMeta#getMaximumPoolSize()}时淘汰最不活跃的记录，封禁中的记录权重为0，不参与淘汰。
+     * 关联封禁记录在{@link AssociatedBans}中，不写入关联api的请求池。
+     * <p>
+     * 1.2.14起不再继承{@code ConcurrentHashMap}，赋值给Map类型的代码需要改用{@link #asMap()}；
+     * 原来常用的Map方法仍然保留（已标记为@Deprecated），直接调用的代码不受影响。
+     */
+    public static class RequestPool {
+        private volatile long                       idleTime;
+        private volatile long                       maximumSize = Long.MAX_VALUE;
+        private volatile Cache<String, RequestMeta> cache;
+
+        /**
+         * @param limitMeta 为null时恢复为未配置状态
+         */
+        public void configure(@Nullable LimitMeta limitMeta) {
+            idleTime    = limitMeta == null ? 0 : limitMeta.getIdleTime();
+            maximumSize = limitMeta == null || limitMeta.getMaximumPoolSize() <= 0 ? Long.MAX_VALUE
+                                                                                   : limitMeta.getMaximumPoolSize();
+            Cache<String, RequestMeta> c = cache;
+            if (c != null) c.policy().eviction().ifPresent(eviction -> eviction.setMaximum(maximumSize));
+        }
+
+        @Nullable
+        public RequestMeta get(String key) {
+            Cache<String, RequestMeta> c = cache;
+            return c == null ? null : c.getIfPresent(key);
+        }
+
+        public boolean containsKey(String key) {
+            return get(key) != null;
+        }
+
+        /**
+         * 1.2.14之前RequestPool本身就是{@code ConcurrentHashMap<String, RequestMeta>}，
+         * 需要按Map遍历、序列化的地方使用这个视图，json序列化的结果与之前相同
+         *
+         * @return 记录的实时视图，修改会直接作用于请求池
+         */
+        @JsonValue
+        public Map<String, RequestMeta> asMap() {
+            Cache<String, RequestMeta> c = cache;
+            return c == null ? Collections.emptyMap() : c.asMap();
+        }
+
+        /**
+         * @return 已存在的记录，不存在时放入并返回null
+         */
+        @Nullable
+        public RequestMeta putIfAbsent(String key,
+                                       RequestMeta requestMeta) {
+            return cache().asMap().putIfAbsent(key, requestMeta);
+        }
+
+        /**
+         * 封禁、解封会改变记录的权重和过期时间，需要重新放入
+         */
+        public void update(String key,
+                           RequestMeta requestMeta) {
+            cache().put(key, requestMeta);
+        }
+
+        /**
+         * @return 当前记录数（估计值）
+         */
+        public long getSize() {
+            Cache<String, RequestMeta> c = cache;
+            return c == null ? 0 : c.estimatedSize();
+        }
+
+        /**
+         * @return 因过期或数量超出被清除的记录数
+         */
+        public long getEvictionCount() {
+            Cache<String, RequestMeta> c = cache;
+            return c == null ? 0 : c.stats().evictionCount();
+        }
+
+        // ---------- 1.2.14之前继承自ConcurrentHashMap的方法，保留以兼容，均作用于 asMap() ----------
+
+        /**
+         * @deprecated 使用 {@link #update(String, RequestMeta)} 或 {@link #putIfAbsent(String, RequestMeta)}
+         */
+        @Deprecated
+        @Nullable
+        public RequestMeta put(String key,
+                               RequestMeta requestMeta) {
+            return cache().asMap().put(key, requestMeta);
+        }
+
+        /**
+         * @deprecated 使用 asMap().remove(key)
+         */
+        @Deprecated
+        @Nullable
+        public RequestMeta remove(Object key) {
+            return asMap().remove(key);
+        }
+
+        /**
+         * @deprecated 使用 {@link #getSize()}
+         */
+        @Deprecated
+        public int size() {
+            return asMap().size();
+        }
+
+        /**
+         * @deprecated 使用 asMap().isEmpty()
+         */
+        @Deprecated
+        public boolean isEmpty() {
+            return asMap().isEmpty();
+        }
+
+        /**
+         * @deprecated 使用 asMap().keySet()
+         */
+        @Deprecated
+        public Set<String> keySet() {
+            return asMap().keySet();
+        }
+
+        /**
+         * @deprecated 使用 asMap().values()
+         */
+        @Deprecated
+        public Collection<RequestMeta> values() {
+            return asMap().values();
+        }
+
+        /**
+         * @deprecated 使用 asMap().entrySet()
+         */
+        @Deprecated
+        public Set<Map.Entry<String, RequestMeta>> entrySet() {
+            return asMap().entrySet();
+        }
+
+        /**
+         * @deprecated 使用 asMap().forEach(action)
+         */
+        @Deprecated
+        public void forEach(BiConsumer<? super String, ? super RequestMeta> action) {
+            asMap().forEach(action);
+        }
+
+        /**
+         * @deprecated 使用 asMap().clear()
+         */
+        @Deprecated
+        public void clear() {
+            asMap().clear();
+        }
+
+        private Cache<String, RequestMeta> cache() {
+            Cache<String, RequestMeta> c = cache;
+            if (c != null) return c;
+            synchronized (this) {
+                if (cache == null) {
+                    cache = Caffeine.newBuilder()
+                            .scheduler(Scheduler.systemScheduler())
+                            .maximumWeight(maximumSize)
+                            .weigher((String k, RequestMeta v) -> v.isBan() ? 0 : 1)
+                            .expireAfter(new RequestExpiry())
+                            .recordStats()
+                            .build();
+                }
+                return cache;
+            }
+        }
+
+        private class RequestExpiry implements Expiry<String, RequestMeta> {
+            @Override
+            public long expireAfterCreate(@NonNull String key,
+                                          @NonNull RequestMeta value,
+                                          long currentTime) {
+                long now = TimeUtils.nowTime();
+                return TimeUnit.MILLISECONDS.toNanos(idleTime + value.remainingBanTime(now));
+            }
+
+            @Override
+            public long expireAfterUpdate(@NonNull String key,
+                                          @NonNull RequestMeta value,
+                                          long currentTime,
+                                          long currentDuration) {
+                return expireAfterCreate(key, value, currentTime);
+            }
+
+            @Override
+            public long expireAfterRead(@NonNull String key,
+                                        @NonNull RequestMeta value,
+                                        long currentTime,
+                                        long currentDuration) {
+                return expireAfterCreate(key, value, currentTime);
+            }
+        }
+    }
+
+    /**
+     * 请求池的大小以及淘汰数，只包含配置了RateLimit的api
+     *
+     * @return api -> method -> metrics
+     * @since 1.2.14
+     */
+    public static Map<String, Map<String, Map<String, Long>>> getRequestPoolMetrics() {
+        Map<String, Map<String, Map<String, Long>>> metrics = new HashMap<>();
+        _rateLimitMetadata.forEach((api, v) -> v.keySet().forEach(method -> {
+            RequestPool ipPool     = getIpRequestPools(api, method);
+            RequestPool userIdPool = getUserIdRequestPool(api, method);
+            if (ipPool == null || userIdPool == null) return;
+            Map<String, Long> m = new HashMap<>();
+            m.put("ipPoolSize", ipPool.getSize());
+            m.put("ipPoolEvictionCount", ipPool.getEvictionCount());
+            m.put("userIdPoolSize", userIdPool.getSize());
+            m.put("userIdPoolEvictionCount", userIdPool.getEvictionCount());
+            metrics.computeIfAbsent(api, r -> new HashMap<>()).put(method, m);
+        }));
+        return metrics;
+    }
+
+    private static void configureRequestPools(String api,
+                                              String method,
+                                              @Nullable LimitMeta limitMeta) {
+        RequestPool ipPool     = getIpRequestPools(api, method);
+        RequestPool userIdPool = getUserIdRequestPool(api, method);
+        if (ipPool != null) ipPool.configure(limitMeta);
+        if (userIdPool != null) userIdPool.configure(limitMeta);
     }
 
     public static LimitMeta getLimitMetadata(String method,
@@ -95,8 +334,9 @@ public class Httpd {
         return limitMetaMap.get(method);
     }
 
-    public static void setPathPattern(String pattern) {
+    public static synchronized void setPathPattern(String pattern) {
         pathMatcherMap.put(pattern, pathPatternParser.parse(pattern));
+        routeMatcher = new RouteMatcher(pathMatcherMap.values());
     }
 
     public static boolean match(String pattern,
@@ -107,35 +347,53 @@ public class Httpd {
     }
 
     public static String getPattern(String path) {
-        for (Map.Entry<String, PathPattern> entry : pathMatcherMap.entrySet()) {
-            if (entry.getValue().matches(PathContainer.parsePath(path))) {
-                return entry.getKey();
-            }
-        }
-        return null;
+        return routeMatcher.match(path, pattern -> true);
     }
 
     public static String getPattern(String method,
                                     String path) {
-        for (Map.Entry<String, PathPattern> entry : pathMatcherMap.entrySet()) {
-            if (entry.getValue().matches(PathContainer.parsePath(path))) {
-                ConcurrentHashMap<String, RequestPool> map = _ipRequestPools.get(entry.getKey());
-                if (map == null || map.isEmpty()) return null;
-                if (map.get(method) == null) return null;
-                return entry.getKey();
-            }
-        }
-        return null;
+        return routeMatcher.match(path, pattern -> {
+            ConcurrentHashMap<String, RequestPool> map = _ipRequestPools.get(pattern);
+            return map != null && map.get(method) != null;
+        });
     }
 
     public static void receive(RequestMessage requestMessage) {
         String    api       = requestMessage.getApi();
         String    method    = requestMessage.getMethod();
-        String    ip        = requestMessage.getIp();
-        long      now       = requestMessage.getNow();
-        Object    userId    = requestMessage.getUserId();
         LimitMeta limitMeta = getLimitMetadata(method, api);
         if (limitMeta == null) return;
+        receive(method, api, requestMessage.getIp(), requestMessage.getUserId(), requestMessage.getNow(), limitMeta);
+    }
+
+    public static void receive(RequestBatchMessage batchMessage) {
+        String[] methods = batchMessage.getMethods();
+        String[] apis    = batchMessage.getApis();
+        String[] ips     = batchMessage.getIps();
+        Object[] userIds = batchMessage.getUserIds();
+        long[]   nows    = batchMessage.getNows();
+
+        // 同一批中大多是同一个api，相邻的相同api复用LimitMeta
+        String    lastMethod = null;
+        String    lastApi    = null;
+        LimitMeta limitMeta  = null;
+        for (int i = 0; i < batchMessage.size(); i++) {
+            if (!methods[i].equals(lastMethod) || !apis[i].equals(lastApi)) {
+                lastMethod = methods[i];
+                lastApi    = apis[i];
+                limitMeta  = getLimitMetadata(lastMethod, lastApi);
+            }
+            if (limitMeta == null) continue;
+            receive(lastMethod, lastApi, ips[i], userIds[i], nows[i], limitMeta);
+        }
+    }
+
+    private static void receive(String method,
+                                String api,
+                                String ip,
+                                Object userId,
+                                long now,
+                                LimitMeta limitMeta) {
         try {
             RateLimit.CheckType checkType = limitMeta.getCheckType();
             if (checkType.equals(USER_ID) && userId == null) return;
@@ -144,12 +402,12 @@ public class Httpd {
             RequestMeta requestMeta = checkType.equals(IP) ? ipRequestPool.get(ip) : userIdRequestPool.get(
                     userId.toString());
             if (requestMeta == null) {
-                if (checkType.equals(IP)) {
-                    ipRequestPool.put(ip, new RequestMeta(now, ip, null));
-                } else {
-                    userIdRequestPool.put(userId.toString(), new RequestMeta(now, null, userId));
-                }
-            } else {
+                requestMeta = checkType.equals(IP)
+                              ? ipRequestPool.putIfAbsent(ip, new RequestMeta(now, ip, null, limitMeta))
+                              : userIdRequestPool.putIfAbsent(userId.toString(),
+                                                              new RequestMeta(now, null, userId, limitMeta));
+            }
+            if (requestMeta != null) {
                 if (!requestMeta.pushRequest(now, limitMeta)) {
                     forbid(now, requestMeta, limitMeta, method, api);
                 }
@@ -158,37 +416,18 @@ public class Httpd {
         }
     }
 
-    public static List<Httpd.RequestPool> associatedIpPools(LimitMeta limitMeta) {
-        List<Httpd.RequestPool> rps = associatedIpPoolsCache.get(limitMeta);
-        if (rps != null) return rps;
-
-        List<LimitMeta.AssociatedPattern> associatedPatterns = limitMeta._getAssociatedPatterns();
-        RateLimit.CheckType               checkType          = limitMeta.getCheckType();
-        List<Httpd.RequestPool>           oIpPools           = new ArrayList<>();
-        if (associatedPatterns != null) {
-            associatedPatterns.forEach(associatedPattern -> associatedPattern.getMethods().forEach(meth -> {
-                RequestPools requestPools = checkType.equals(IP) ? _ipRequestPools : _userIdRequestPools;
-                requestPools.keySet().stream().filter(path -> match(associatedPattern.getPattern(), path)).forEach(
-                        path -> oIpPools.add(requestPools.get(path).get(meth)));
-            }));
-        }
-
-        associatedIpPoolsCache.put(limitMeta, oIpPools);
-        return oIpPools;
-    }
-
     public static void forbid(long now,
                               RequestMeta requestMeta,
                               LimitMeta limitMeta,
                               String method,
                               String api) {
+        RequestPool pool = requestPool(limitMeta, method, api);
+        String      key  = requestKey(requestMeta, limitMeta);
         requestMeta.forbidden(method, api, limitMeta);
-        String ip     = requestMeta.getIp();
-        Object userId = requestMeta.getUserId();
-        for (Httpd.RequestPool ipPool : associatedIpPools(limitMeta)) {
-            if (!ipPool.containsKey(ip)) {
-                ipPool.put(ip, new RequestMeta(now, ip, userId).forbidden(method, api, limitMeta));
-            } else {ipPool.get(ip).forbidden(method, api, limitMeta);}
+        if (pool != null) pool.update(key, requestMeta);
+        if (requestMeta.isBan()) {
+            AssociatedBans.ban(limitMeta, key, requestMeta.reliveTimeMillis(), requestMeta.getIp(),
+                               requestMeta.getUserId());
         }
     }
 
@@ -196,17 +435,30 @@ public class Httpd {
                               LimitMeta limitMeta,
                               String method,
                               String api) {
-        String ip = requestMeta.getIp();
+        RequestPool pool = requestPool(limitMeta, method, api);
+        String      key  = requestKey(requestMeta, limitMeta);
         requestMeta.relive(method, api, limitMeta);
-        associatedIpPools(limitMeta).forEach(ipPool -> {
-            if (ipPool.containsKey(ip)) ipPool.get(ip).relive(method, api, limitMeta);
-        });
+        if (pool != null) pool.update(key, requestMeta);
+        AssociatedBans.relive(limitMeta, key);
+    }
+
+    private static RequestPool requestPool(LimitMeta limitMeta,
+                                           String method,
+                                           String api) {
+        return limitMeta.getCheckType().equals(IP) ? getIpRequestPools(api, method)
+                                                   : getUserIdRequestPool(api, method);
+    }
+
+    private static String requestKey(RequestMeta requestMeta,
+                                     LimitMeta limitMeta) {
+        return limitMeta.getCheckType().equals(IP) ? requestMeta.getIp() : String.valueOf(requestMeta.getUserId());
     }
 
     @Nullable
     public static synchronized Object modify(@NonNull AuthzModifier authzModifier) {
         String path   = authzModifier.getApi();
         String method = authzModifier.getMethod();
+        RedisRateLimiter.clearAssociatedCache();
         try {
             switch (authzModifier.getOperate()) {
                 case ADD:
@@ -217,12 +469,17 @@ public class Httpd {
                                                         rateLimit.getPunishmentTime().toArray(new String[0]),
                                                         rateLimit.getMinInterval() + "ms",
                                                         rateLimit.getAssociatedPatterns().toArray(new String[0]),
-                                                        rateLimit.getCheckType());
+                                                        rateLimit.getCheckType(),
+                                                        rateLimit.getMaximumPoolSize(),
+                                                        rateLimit.getBackend(),
+                                                        rateLimit.getAlgorithm());
                     _rateLimitMetadata.computeIfAbsent(path, r -> new HashMap<>()).put(method, limitMeta);
+                    configureRequestPools(path, method, limitMeta);
                     return AuthzResult.SUCCESS.data("rateLimit", limitMeta);
                 case DEL:
                 case DELETE:
                     _rateLimitMetadata.computeIfAbsent(path, r -> new HashMap<>()).remove(method);
+                    configureRequestPools(path, method, null);
                     if (_rateLimitMetadata.get(path).isEmpty()) {
                         _rateLimitMetadata.remove(path);
                     }
@@ -262,12 +519,15 @@ public class Httpd {
                                        rateLimit.punishmentTime(),
                                        rateLimit.minInterval(),
                                        rateLimit.associatedPatterns(),
-                                       rateLimit.checkType()));
+                                       rateLimit.checkType(),
+                                       rateLimit.maximumPoolSize(),
+                                       rateLimit.backend(),
+                                       rateLimit.algorithm()));
             }
         });
 
         mapRet.forEach((key, value) -> getPatterns(key).forEach(patternValue -> {
-            setPathPattern(patternValue);
+            pathMatcherMap.put(patternValue, pathPatternParser.parse(patternValue));
             HashMap<String, RequestPool> userIdRequestPool = new HashMap<>();
             HashMap<String, RequestPool> ipRequestPool     = new HashMap<>();
 
@@ -281,6 +541,7 @@ public class Httpd {
             _userIdRequestPools.computeIfAbsent(patternValue, r -> new ConcurrentHashMap<>()).putAll(
                     userIdRequestPool);
         }));
+        routeMatcher = new RouteMatcher(pathMatcherMap.values());
 
         mapRet.forEach((key, value) -> {
             Set<RequestMethod> methods = key.getMethodsCondition().getMethods();
@@ -292,7 +553,10 @@ public class Httpd {
                                                     rateLimit.punishmentTime(),
                                                     rateLimit.minInterval(),
                                                     rateLimit.associatedPatterns(),
-                                                    rateLimit.checkType());
+                                                    rateLimit.checkType(),
+                                                    rateLimit.maximumPoolSize(),
+                                                    rateLimit.backend(),
+                                                    rateLimit.algorithm());
                 methods.forEach(
                         method -> getPatterns(key).forEach(
                                 patternValue -> _rateLimitMetadata.computeIfAbsent(patternValue,
@@ -315,6 +579,8 @@ public class Httpd {
             }
         });
 
+        _rateLimitMetadata.forEach(
+                (api, v) -> v.forEach((method, limitMeta) -> configureRequestPools(api, method, limitMeta)));
     }
 
     private Httpd() {
@@ -0,0 +1,163 @@
+package cn.omisheep.authz.core.auth.ipf;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按需缓存请求体。
+ * <p>
+ * 只有调用{@link #buffer()}（如{@link HttpMeta#getBody()}）之后才会把请求体读入内存，之后的
+ * {@link #getInputStream()}、{@link #getReader()}可以重复读取；在此之前请求体原样透传，不做任何复制。
+ * 需要请求体的规则应当在参数解析之前（slot中）调用{@link HttpMeta#getBody()}，之后的@RequestBody读取的是缓存。
+ * 请求体超过maxSize时不缓存，已经读出的部分与剩余的原始流拼接后交给后续的读取者，不会丢失数据。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public class LazyBodyRequestWrapper extends HttpServletRequestWrapper {
+
+    private final int     maxSize;
+    private       byte[]  body;
+    private       boolean overflow;
+    private       boolean streamed;
+
+    /**
+     * @param request 原始请求
+     * @param maxSize 最大缓存字节数，小于等于0时不限制
+     */
+    public LazyBodyRequestWrapper(HttpServletRequest request,
+                                  int maxSize) {
+        super(request);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 读取并缓存请求体，只读取一次
+     *
+     * @return 是否已缓存完整的请求体。原始流已经被其他地方读取或者请求体超过maxSize时返回false
+     * @throws IOException 读取失败
+     */
+    public synchronized boolean buffer() throws IOException {
+        if (body != null) return !overflow;
+        if (streamed) return false;
+        InputStream           in    = super.getInputStream();
+        ByteArrayOutputStream out   = new ByteArrayOutputStream(Math.min(Math.max(getContentLength(), 32), 8192));
+        byte[]                bytes = new byte[4096];
+        int                   n;
+        while ((n = in.read(bytes)) != -1) {
+            out.write(bytes, 0, n);
+            if (maxSize > 0 && out.size() > maxSize) {
+                overflow = true;
+                break;
+            }
+        }
+        body = out.toByteArray();
+        return !overflow;
+    }
+
+    @Override
+    public synchronized ServletInputStream getInputStream() throws IOException {
+        if (body == null) {
+            streamed = true;
+            return super.getInputStream();
+        }
+        // 超过maxSize时拼接已读出的部分与剩余的原始流，只能读取一次
+        return new BufferedServletInputStream(body, overflow ? super.getInputStream() : null);
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        String  encoding = getCharacterEncoding();
+        Charset charset  = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+        return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+    }
+
+    /**
+     * 已缓存的请求体，超过maxSize时之后接着读取剩余的原始流
+     */
+    private static class BufferedServletInputStream extends ServletInputStream {
+        private final ByteArrayInputStream buffered;
+        private final ServletInputStream   rest;
+        private       boolean              finished;
+
+        private BufferedServletInputStream(byte[] body,
+                                           ServletInputStream rest) {
+            this.buffered = new ByteArrayInputStream(body);
+            this.rest     = rest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = buffered.read();
+            if (b == -1 && rest != null) b = rest.read();
+            if (b == -1) finished = true;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b,
+                        int off,
+                        int len) throws IOException {
+            if (len == 0) return 0;
+            int n = buffered.read(b, off, len);
+            if (n == -1 && rest != null) n = rest.read(b, off, len);
+            if (n == -1) finished = true;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            int n = buffered.available();
+            return n > 0 || rest == null ? n : rest.available();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished || buffered.available() == 0 && (rest == null || rest.isFinished());
+        }
+
+        @Override
+        public boolean isReady() {
+            return buffered.available() > 0 || rest == null || rest.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            if (readListener == null) throw new NullPointerException("readListener");
+            if (rest != null) {
+                // 剩余部分仍在原始流中，由容器在可读时回调；已缓存的部分在第一次回调时一并读出
+                rest.setReadListener(new ReadListener() {
+                    @Override
+                    public void onDataAvailable() throws IOException {
+                        readListener.onDataAvailable();
+                    }
+
+                    @Override
+                    public void onAllDataRead() throws IOException {
+                        if (buffered.available() > 0) readListener.onDataAvailable();
+                        readListener.onAllDataRead();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        readListener.onError(t);
+                    }
+                });
+                return;
+            }
+            // 请求体已经全部在内存中，立即回调
+            try {
+                if (buffered.available() > 0) readListener.onDataAvailable();
+                readListener.onAllDataRead();
+            } catch (Throwable t) {
+                readListener.onError(t);
+            }
+        }
+    }
+
+}
@@ -1,8 +1,10 @@
 package cn.omisheep.authz.core.auth.ipf;
 
 import cn.omisheep.authz.annotation.RateLimit;
+import cn.omisheep.authz.core.AuthzProperties;
 import cn.omisheep.authz.core.config.Constants;
 import cn.omisheep.commons.util.TimeUtils;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.google.common.base.Objects;
 import lombok.Data;
@@ -26,6 +28,12 @@ public class LimitMeta {
     private final long                    minInterval;
     @Getter
     private final RateLimit.CheckType     checkType;
+    @Getter
+    private final long                    maximumPoolSize;
+    @Getter
+    private final RateLimit.Backend       backend;
+    @Getter
+    private final RateLimit.Algorithm     algorithm;
     private final List<AssociatedPattern> associatedPatterns;
     private final List<Long>              punishmentTime = new ArrayList<>();
 
@@ -35,9 +43,37 @@ public class LimitMeta {
                      String minInterval,
                      String[] associatedPatterns,
                      RateLimit.CheckType checkType) {
-        this.window      = TimeUtils.parseTimeValue(window);
-        this.maxRequests = maxRequests;
-        this.checkType   = checkType;
+        this(window, maxRequests, punishmentTime, minInterval, associatedPatterns, checkType,
+             RateLimit.DEFAULT_MAXIMUM_POOL_SIZE, RateLimit.Backend.DEFAULT);
+    }
+
+    public LimitMeta(String window,
+                     int maxRequests,
+                     String[] punishmentTime,
+                     String minInterval,
+                     String[] associatedPatterns,
+                     RateLimit.CheckType checkType,
+                     long maximumPoolSize,
+                     RateLimit.Backend backend) {
+        this(window, maxRequests, punishmentTime, minInterval, associatedPatterns, checkType, maximumPoolSize,
+             backend, RateLimit.Algorithm.SLIDING_WINDOW);
+    }
+
+    public LimitMeta(String window,
+                     int maxRequests,
+                     String[] punishmentTime,
+                     String minInterval,
+                     String[] associatedPatterns,
+                     RateLimit.CheckType checkType,
+                     long maximumPoolSize,
+                     RateLimit.Backend backend,
+                     RateLimit.Algorithm algorithm) {
+        this.window          = TimeUtils.parseTimeValue(window);
+        this.maxRequests     = maxRequests;
+        this.checkType       = checkType;
+        this.maximumPoolSize = maximumPoolSize;
+        this.backend         = backend == null ? RateLimit.Backend.DEFAULT : backend;
+        this.algorithm       = algorithm == null ? RateLimit.Algorithm.SLIDING_WINDOW : algorithm;
         Arrays.stream(punishmentTime).forEach(val -> this.punishmentTime.add(TimeUtils.parseTimeValue(val)));
         Collections.sort(this.punishmentTime);
         this.minInterval = TimeUtils.parseTimeValue(minInterval);
@@ -76,6 +112,28 @@ public class LimitMeta {
         return Collections.unmodifiableList(punishmentTime);
     }
 
+    /**
+     * 一个key在请求池中的最大空闲时间：一个窗口加上最长的封禁时间。
+     * 超过这个时间未访问，窗口内的请求记录和惩罚等级都已经没有意义
+     *
+     * @return 空闲时间 ms
+     */
+    @JsonIgnore
+    public long getIdleTime() {
+        return window + (punishmentTime.isEmpty() ? 0 : punishmentTime.get(punishmentTime.size() - 1));
+    }
+
+    /**
+     * @param cache 缓存配置
+     * @return 是否使用redis计数
+     */
+    public boolean isRedisBackend(AuthzProperties.CacheConfig cache) {
+        if (!cache.isEnableRedis()) return false;
+        RateLimit.Backend b = backend;
+        if (b == RateLimit.Backend.DEFAULT) b = cache.getRateLimitBackend();
+        return b == RateLimit.Backend.REDIS;
+    }
+
     @Getter
     @Data
     public static class AssociatedPattern {
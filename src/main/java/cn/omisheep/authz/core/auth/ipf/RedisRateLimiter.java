@@ -0,0 +1,235 @@
+package cn.omisheep.authz.core.auth.ipf;
+
+import cn.omisheep.authz.annotation.RateLimit;
+import cn.omisheep.authz.core.config.Constants;
+import cn.omisheep.authz.core.util.RedisUtils;
+import lombok.Getter;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于redis的限流计数，窗口检查、封禁以及惩罚升级在一个lua脚本中原子完成，所有实例共享同一份计数，
+ * 不再需要通过{@link cn.omisheep.authz.core.msg.RequestMessage}在各个实例间重放请求。
+ * <p>
+ * 窗口与{@link RequestMeta}一致：滑动窗口在list中保留最近 maxRequests+1 次请求时间，
+ * 若第 maxRequests+1 次（往前数）仍在窗口内则触发封禁；令牌桶与GCRA在一个hash中保存额度（理论到达时间）、
+ * 补充时间以及上次请求时间，计算方式与本地相同。
+ * <p>
+ * 同一个ip或者用户id的key使用相同的hash tag（位于api之前，不受api中的路径变量影响），
+ * 关联api的封禁也在同一个脚本中写入，cluster下同样可用。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+@SuppressWarnings("rawtypes")
+public class RedisRateLimiter {
+
+    private static final String SCRIPT_TEXT =
+            "local now = tonumber(ARGV[1])\n" +
+            "local maxRequests = tonumber(ARGV[2])\n" +
+            "local window = tonumber(ARGV[3])\n" +
+            "local minInterval = tonumber(ARGV[4])\n" +
+            "local idle = tonumber(ARGV[5])\n" +
+            "local algorithm = ARGV[6]\n" +
+            "local state = redis.call('HMGET', KEYS[2], 'relive', 'level', 'ban')\n" +
+            "local relive = tonumber(state[1]) or 0\n" +
+            "local level = tonumber(state[2]) or 0\n" +
+            "if state[3] == '1' and relive > now then return {0, relive, 2, 0} end\n" +
+            "local relived = 0\n" +
+            "if state[3] == '1' then relived = 1 end\n" +
+            "if now - relive > window then level = 0 end\n" +
+            "local allowed\n" +
+            "if algorithm == 'SLIDING_WINDOW' then\n" +
+            "  local last = tonumber(redis.call('LINDEX', KEYS[1], 0)) or 0\n" +
+            "  redis.call('LPUSH', KEYS[1], now)\n" +
+            "  redis.call('LTRIM', KEYS[1], 0, math.max(maxRequests, 1))\n" +
+            "  redis.call('PEXPIRE', KEYS[1], idle)\n" +
+            "  if maxRequests <= 0 then allowed = window <= 0\n" +
+            "  elseif minInterval > 0 and last > 0 and now - last < minInterval then allowed = false\n" +
+            "  else\n" +
+            "    local oldest = tonumber(redis.call('LINDEX', KEYS[1], maxRequests)) or 0\n" +
+            "    allowed = oldest == 0 or now - oldest >= window\n" +
+            "  end\n" +
+            "else\n" +
+            "  local s = redis.call('HMGET', KEYS[1], 'value', 'time', 'last')\n" +
+            "  local value = tonumber(s[1])\n" +
+            "  local time = tonumber(s[2]) or 0\n" +
+            "  local last = tonumber(s[3]) or 0\n" +
+            "  if maxRequests <= 0 then allowed = window <= 0\n" +
+            "  elseif minInterval > 0 and last > 0 and now - last < minInterval then allowed = false\n" +
+            "  elseif window <= 0 then allowed = true\n" +
+            "  elseif algorithm == 'TOKEN_BUCKET' then\n" +
+            "    local capacity = maxRequests * window\n" +
+            "    if value == nil then value = capacity; time = now\n" +
+            "    elseif now > time then\n" +
+            "      value = math.min(capacity, value + math.min(now - time, window) * maxRequests); time = now\n" +
+            "    end\n" +
+            "    allowed = value >= window\n" +
+            "    if allowed then value = value - window end\n" +
+            "  else\n" +
+            "    local interval = math.max(math.floor(window * 1000 / maxRequests), 1)\n" +
+            "    local t = now * 1000\n" +
+            "    local tat = math.max(value or 0, t)\n" +
+            "    allowed = tat - t <= interval * (maxRequests - 1)\n" +
+            "    if allowed then value = tat + interval end\n" +
+            "  end\n" +
+            "  redis.call('HMSET', KEYS[1], 'value', string.format('%d', value or 0), 'time', time, 'last', now)\n" +
+            "  redis.call('PEXPIRE', KEYS[1], idle)\n" +
+            "end\n" +
+            "local n = #ARGV - 6\n" +
+            "if allowed or n == 0 then\n" +
+            "  redis.call('HMSET', KEYS[2], 'relive', relive, 'level', level, 'ban', '0')\n" +
+            "  redis.call('PEXPIRE', KEYS[2], idle)\n" +
+            "  if allowed then return {1, 0, 0, relived} end\n" +
+            "  return {0, 0, 0, relived}\n" +
+            "end\n" +
+            "level = level + 1\n" +
+            "local punishment = tonumber(ARGV[6 + math.min(level, n)])\n" +
+            "relive = now + punishment\n" +
+            "redis.call('DEL', KEYS[1])\n" +
+            "redis.call('HMSET', KEYS[2], 'relive', relive, 'level', level, 'ban', '1')\n" +
+            "redis.call('PEXPIRE', KEYS[2], punishment + idle)\n" +
+            "for i = 3, #KEYS do\n" +
+            "  redis.call('HMSET', KEYS[i], 'relive', relive, 'ban', '1')\n" +
+            "  redis.call('PEXPIRE', KEYS[i], punishment + idle)\n" +
+            "end\n" +
+            "return {0, relive, 1, relived}";
+
+    private static final DefaultRedisScript<List> SCRIPT = new DefaultRedisScript<>(SCRIPT_TEXT, List.class);
+
+    /**
+     * LimitMeta -> 关联的 method:api
+     */
+    private static final Map<LimitMeta, List<String>> associatedApisCache = new ConcurrentHashMap<>();
+
+    private RedisRateLimiter() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param method    请求方法
+     * @param api       api
+     * @param key       ip或者用户id
+     * @param now       请求时间
+     * @param limitMeta 限流配置
+     * @return 计数结果，redis不可用时返回null
+     */
+    @Nullable
+    public static Result request(String method,
+                                 String api,
+                                 String key,
+                                 long now,
+                                 LimitMeta limitMeta) {
+        List<String> keys = new ArrayList<>();
+        RateLimit.Algorithm algorithm = limitMeta.getAlgorithm();
+        keys.add(key(method, api, key) + (algorithm == RateLimit.Algorithm.SLIDING_WINDOW
+                                          ? ":window"
+                                          : ":" + algorithm.name().toLowerCase(Locale.ROOT)));
+        keys.add(key(method, api, key));
+        for (String associatedApi : associatedApis(limitMeta)) {
+            if (!associatedApi.equals(method + Constants.SEPARATOR + api)) keys.add(key(associatedApi, key));
+        }
+
+        List<Long>   punishmentTime = limitMeta.getPunishmentTime();
+        List<String> args           = new ArrayList<>(6 + punishmentTime.size());
+        args.add(String.valueOf(now));
+        args.add(String.valueOf(limitMeta.getMaxRequests()));
+        args.add(String.valueOf(limitMeta.getWindow()));
+        args.add(String.valueOf(limitMeta.getMinInterval()));
+        args.add(String.valueOf(Math.max(limitMeta.getIdleTime(), 1)));
+        args.add(algorithm.name());
+        for (Long p : punishmentTime) args.add(String.valueOf(p));
+
+        List res = RedisUtils.eval(SCRIPT, keys, args.toArray(new String[0]));
+        if (res == null || res.size() < 4) return null;
+        return new Result(toLong(res.get(0)) == 1, toLong(res.get(1)), (int) toLong(res.get(2)),
+                          toLong(res.get(3)) == 1);
+    }
+
+    /**
+     * Httpd.modify修改限流配置后LimitMeta会被替换，这里只需清理旧的关联关系
+     */
+    public static void clearAssociatedCache() {
+        associatedApisCache.clear();
+    }
+
+    private static List<String> associatedApis(LimitMeta limitMeta) {
+        List<LimitMeta.AssociatedPattern> associatedPatterns = limitMeta._getAssociatedPatterns();
+        if (associatedPatterns == null) return new ArrayList<>();
+        return associatedApisCache.computeIfAbsent(limitMeta, l -> {
+            List<String> apis = new ArrayList<>();
+            associatedPatterns.forEach(
+                    associatedPattern -> associatedPattern.getMethods().forEach(meth -> Httpd.getIpRequestPools()
+                            .keySet()
+                            .stream()
+                            .filter(path -> Httpd.match(associatedPattern.getPattern(), path))
+                            .forEach(path -> apis.add(meth + Constants.SEPARATOR + path))));
+            return apis;
+        });
+    }
+
+    private static String key(String method,
+                              String api,
+                              String key) {
+        return key(method + Constants.SEPARATOR + api, key);
+    }
+
+    /**
+     * hash tag紧跟在前缀之后。redis取第一个{@code {...}}作为hash tag，放在api之后时，
+     * 形如/user/{id}的api会让tag变成{id}，同一个ip或者用户的key落到不同的slot
+     */
+    private static String key(String methodAndApi,
+                              String key) {
+        return Constants.RATE_LIMIT_KEY_PREFIX.get() + "{" + key + "}" + Constants.SEPARATOR + methodAndApi;
+    }
+
+    private static long toLong(Object o) {
+        if (o instanceof Number) return ((Number) o).longValue();
+        return Long.parseLong(o.toString());
+    }
+
+    @Getter
+    public static class Result {
+        /**
+         * 本次请求是否通过
+         */
+        private final boolean allowed;
+        /**
+         * 解封时间，未封禁时为0
+         */
+        private final long    reliveTime;
+        /**
+         * 0 未封禁，1 本次请求触发封禁，2 封禁中
+         */
+        private final int     banState;
+        /**
+         * 本次请求是否解除了之前的封禁
+         */
+        private final boolean relived;
+
+        public Result(boolean allowed,
+                      long reliveTime,
+                      int banState,
+                      boolean relived) {
+            this.allowed    = allowed;
+            this.reliveTime = reliveTime;
+            this.banState   = banState;
+            this.relived    = relived;
+        }
+
+        public boolean isNewlyBanned() {
+            return banState == 1;
+        }
+
+        public boolean isBanned() {
+            return banState == 2;
+        }
+    }
+
+}
@@ -1,15 +1,18 @@
 package cn.omisheep.authz.core.auth.ipf;
 
+import cn.omisheep.authz.annotation.RateLimit;
 import cn.omisheep.authz.core.callback.RateLimitCallback;
 import cn.omisheep.commons.util.TimeUtils;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Getter;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.springframework.lang.Nullable;
 
-import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
@@ -18,22 +21,59 @@ import java.util.stream.Collectors;
  */
 public class RequestMeta {
     @Getter
-    private final  String            ip;
+    private final    String                         ip;
     @Getter
-    private final  Object            userId;
+    private final    Object                         userId;
     @Getter
-    private        boolean           ban;
-    private        int               punishmentLevel;
-    private        long              reliveTime;
-    private        long              lastRequestTime;
-    private        long              sinceLastTime;
-    private final  LinkedList<Long>  requestTimeList = new LinkedList<>();
-    private static RateLimitCallback callback;
+    private volatile boolean                        ban;
+    private volatile int                            punishmentLevel;
+    private volatile long                           reliveTime;
+    private final    AtomicLong                     lastRequestTime = new AtomicLong();
+    /**
+     * 上一次计入限流的请求时间，用于minInterval。封禁期间被拒绝的请求只更新lastRequestTime，
+     * 封禁时清零，解封后的第一次请求不会和封禁期间的请求比较间隔
+     */
+    private final    AtomicLong                     lastCountedTime = new AtomicLong();
+    private volatile long                           sinceLastTime;
+    private final    AtomicReference<SlidingWindow> slidingWindow   = new AtomicReference<>();
+    /**
+     * 令牌桶的剩余额度与上次补充时间，0表示桶是满的
+     */
+    private          long                           tokens;
+    private          long                           tokenTime;
+    /**
+     * GCRA的理论到达时间（μs）
+     */
+    private volatile long                           tat;
+    private static   RateLimitCallback              callback;
+
+    private static final AtomicLongFieldUpdater<RequestMeta> TAT = AtomicLongFieldUpdater.newUpdater(
+            RequestMeta.class, "tat");
 
     protected static void setCallback(RateLimitCallback callback) {
         RequestMeta.callback = callback;
     }
 
+    /**
+     * 不经过本地请求池的封禁（如redis计数）也要通知回调
+     */
+    public static void notifyForbid(String method,
+                                    String api,
+                                    String ip,
+                                    Object userId,
+                                    LimitMeta limitMeta,
+                                    long reliveTime) {
+        if (callback != null) callback.forbid(method, api, ip, userId, limitMeta, new Date(reliveTime));
+    }
+
+    public static void notifyRelive(String method,
+                                    String api,
+                                    String ip,
+                                    Object userId,
+                                    LimitMeta limitMeta) {
+        if (callback != null) callback.relive(method, api, ip, userId, limitMeta);
+    }
+
     @JsonInclude(JsonInclude.Include.NON_NULL)
     public Date getReliveTime() {
         return ban ? new Date(reliveTime) : null;
@@ -41,40 +81,64 @@ public class RequestMeta {
 
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     public List<Date> getRequestTimeList() {
-        return requestTimeList.stream().map(Date::new).collect(Collectors.toList());
+        SlidingWindow w = slidingWindow.get();
+        if (w == null) return Collections.emptyList();
+        return w.snapshot().stream().map(Date::new).collect(Collectors.toList());
     }
 
     public void setLastRequestTime(long lastRequestTime) {
-        this.sinceLastTime   = lastRequestTime - this.lastRequestTime;
-        this.lastRequestTime = lastRequestTime;
+        this.sinceLastTime = lastRequestTime - this.lastRequestTime.getAndSet(lastRequestTime);
     }
 
     public Date getLastRequestTime() {
-        return new Date(lastRequestTime);
+        return new Date(lastRequestTime.get());
     }
 
     public RequestMeta(long now,
                        String ip,
                        Object userId) {
+        this(now, ip, userId, null);
+    }
+
+    /**
+     * @param limitMeta 首次请求所在api的限流配置，为null或者滑动窗口时首次请求总是通过
+     */
+    public RequestMeta(long now,
+                       String ip,
+                       Object userId,
+                       @Nullable LimitMeta limitMeta) {
         this.ip     = ip;
         this.userId = userId;
-        request(now, 1, 0, 0);
+        if (limitMeta == null || limitMeta.getAlgorithm() == RateLimit.Algorithm.SLIDING_WINDOW) {
+            request(now, 1, 0, 0);
+        } else {
+            request(now, limitMeta);
+        }
     }
 
     public boolean enableRelive(long now) {
         return reliveTime <= now;
     }
 
-    public void relive(String method,
-                       String api,
-                       LimitMeta limitMeta) {
+    long reliveTimeMillis() {
+        return reliveTime;
+    }
+
+    long remainingBanTime(long now) {
+        return ban ? Math.max(0, reliveTime - now) : 0;
+    }
+
+    public synchronized void relive(String method,
+                                    String api,
+                                    LimitMeta limitMeta) {
         ban = false;
-        callback.relive(method, api, ip, userId, limitMeta);
+        lastCountedTime.set(0);
+        if (callback != null) callback.relive(method, api, ip, userId, limitMeta);
     }
 
-    public RequestMeta forbidden(String method,
-                                 String api,
-                                 LimitMeta limitMeta) {
+    public synchronized RequestMeta forbidden(String method,
+                                              String api,
+                                              LimitMeta limitMeta) {
         long       nowTime        = TimeUtils.nowTime();
         List<Long> punishmentTime = limitMeta.getPunishmentTime();
         if (punishmentTime == null) return this;
@@ -85,45 +149,112 @@ public class RequestMeta {
         } else {
             reliveTime = punishmentTime.get(punishmentTime.size() - 1) + nowTime;
         }
-        requestTimeList.clear();
+        SlidingWindow w = slidingWindow.get();
+        if (w != null) slidingWindow.compareAndSet(w, new SlidingWindow(w.capacity()));
+        lastCountedTime.set(0);
+        tokenTime = 0;
+        TAT.set(this, 0);
         ban = true;
         if (callback != null) callback.forbid(method, api, ip, userId, limitMeta, new Date(reliveTime));
         return this;
     }
 
+    /**
+     * 其他节点同步过来的请求，到达顺序与请求时间不一定一致。时间戳早于本地最新记录的请求时按最新记录的时间计入，
+     * 否则会替换出比它更新的时间戳，或者让 now - oldest 为负，触发并不存在的封禁；
+     * 此时无法判断它与相邻请求的真实间隔，不检查minInterval
+     */
     public boolean pushRequest(long now,
                                int maxRequests,
                                long window,
                                long minInterval) {
-        if (requestTimeList.isEmpty() || requestTimeList.getLast() < now) {
+        long latest = lastRequestTime.get();
+        if (now >= latest) return request(now, maxRequests, window, minInterval);
+        return request(latest, maxRequests, window, 0);
+    }
+
+    /**
+     * @see #pushRequest(long, int, long, long)
+     */
+    public boolean pushRequest(long now,
+                               LimitMeta limitMeta) {
+        long latest = lastRequestTime.get();
+        if (now >= latest) return request(now, limitMeta);
+        return request(latest, limitMeta, 0);
+    }
+
+    /**
+     * 按照限流配置中的算法计入一次请求
+     *
+     * @param now       nowMills
+     * @param limitMeta 限流配置
+     * @return 访问是否成功
+     */
+    public boolean request(long now,
+                           LimitMeta limitMeta) {
+        return request(now, limitMeta, limitMeta.getMinInterval());
+    }
+
+    private boolean request(long now,
+                            LimitMeta limitMeta,
+                            long minInterval) {
+        RateLimit.Algorithm algorithm   = limitMeta.getAlgorithm();
+        int                 maxRequests = limitMeta.getMaxRequests();
+        long                window      = limitMeta.getWindow();
+        if (algorithm == RateLimit.Algorithm.SLIDING_WINDOW) {
             return request(now, maxRequests, window, minInterval);
         }
 
-        for (int i = 0; i < requestTimeList.size(); i++) {
-            if (requestTimeList.get(i) >= now) {
-                requestTimeList.add(i, now);
-                break;
-            }
-        }
+        if (now - reliveTime > window) punishmentLevel = 0;
 
-        int size = requestTimeList.size();
-        if (minInterval > 0 && size >= 2) {
-            if (requestTimeList.get(size - 1) - requestTimeList.get(size - 2) > minInterval) {
-                return false;
-            }
-        }
+        long lastSeen = lastRequestTime.getAndSet(now);
+        if (lastSeen != 0) sinceLastTime = now - lastSeen;
+        long lastSecond = lastCountedTime.getAndSet(now);
+
+        if (maxRequests <= 0) return window <= 0;
+        if (minInterval > 0 && lastSecond != 0 && now - lastSecond < minInterval) return false;
+        if (window <= 0) return true;
+
+        return algorithm == RateLimit.Algorithm.TOKEN_BUCKET ? takeToken(now, maxRequests, window)
+                                                             : gcra(now, maxRequests, window);
+    }
 
-        if (size > maxRequests) {
-            Long first = requestTimeList.getFirst();
-            return requestTimeList.getLast() - first >= window;
+    /**
+     * 额度的单位是 1/window 次请求：一次请求消耗window，每ms补充maxRequests，容量为 maxRequests*window，
+     * 即每个window补满maxRequests次，全程是整数运算
+     */
+    private synchronized boolean takeToken(long now,
+                                           int maxRequests,
+                                           long window) {
+        long capacity = maxRequests * window;
+        if (tokenTime == 0) {
+            tokens    = capacity;
+            tokenTime = now;
+        } else if (now > tokenTime) {
+            tokens    = Math.min(capacity, tokens + Math.min(now - tokenTime, window) * maxRequests);
+            tokenTime = now;
         }
+        if (tokens < window) return false;
+        tokens -= window;
         return true;
     }
 
-
-    public boolean pushRequest(long now,
-                               LimitMeta limitMeta) {
-        return pushRequest(now, limitMeta.getMaxRequests(), limitMeta.getWindow(), limitMeta.getMinInterval());
+    /**
+     * 每次请求把理论到达时间推后 window/maxRequests，理论到达时间超前当前时间
+     * (maxRequests-1) 个间隔以上时拒绝，即最多允许maxRequests次突发
+     */
+    private boolean gcra(long now,
+                         int maxRequests,
+                         long window) {
+        long interval  = Math.max(window * 1000 / maxRequests, 1);
+        long tolerance = interval * (maxRequests - 1);
+        long t         = now * 1000;
+        while (true) {
+            long current = tat;
+            long next    = Math.max(current, t);
+            if (next - t > tolerance) return false;
+            if (TAT.compareAndSet(this, current, next + interval)) return true;
+        }
     }
 
     /**
@@ -140,31 +271,32 @@ public class RequestMeta {
         // 过了一个周期后，惩罚等级归零
         if (now - reliveTime > window) punishmentLevel = 0;
 
-        Long lastSecond = null;
-        if (!requestTimeList.isEmpty()) {
-            lastSecond    = requestTimeList.getLast();
-            sinceLastTime = now - lastSecond;
-        }
-        lastRequestTime = now;
+        long lastSeen = lastRequestTime.getAndSet(now);
+        if (lastSeen != 0) sinceLastTime = now - lastSeen;
+        long lastSecond = lastCountedTime.getAndSet(now);
+
+        if (maxRequests <= 0) return window <= 0;
 
-        requestTimeList.removeIf(time -> (now - time) > window);
-        requestTimeList.offer(now);
-        Long lastFirst = requestTimeList.getLast();
+        // 替换出的是往前数第maxRequests次请求的时间，它仍在窗口内说明窗口内已有maxRequests+1次请求
+        long oldest = slidingWindow(maxRequests).exchange(now);
 
-        if (minInterval > 0 && lastSecond != null) {
-            if (lastFirst - lastSecond < minInterval) {
+        if (minInterval > 0 && lastSecond != 0) {
+            if (now - lastSecond < minInterval) {
                 return false; // 请求间隔太短，封禁
             }
         }
 
-        while (requestTimeList.size() - 1 > maxRequests) requestTimeList.pollFirst();
+        return oldest == 0 || now - oldest >= window;
+    }
 
-        if (requestTimeList.size() > maxRequests) {
-            Long first = requestTimeList.getFirst();
-            return lastFirst - first >= window;
+    private SlidingWindow slidingWindow(int capacity) {
+        SlidingWindow w = slidingWindow.get();
+        while (w == null || w.capacity() != capacity) {
+            SlidingWindow resized = w == null ? new SlidingWindow(capacity) : w.resize(capacity);
+            if (slidingWindow.compareAndSet(w, resized)) return resized;
+            w = slidingWindow.get();
         }
-
-        return true;
+        return w;
     }
 
     public String sinceLastTime() {
@@ -184,4 +316,52 @@ public class RequestMeta {
         return new HashCodeBuilder(17, 37).append(getIp()).append(getUserId()).toHashCode();
     }
 
+    /**
+     * 固定容量的请求时间环形缓冲区。
+     * <p>
+     * 每次请求通过自增游标占据一个槽位，并用原子交换取出该槽位上一次写入的时间，
+     * 即往前数第capacity次请求的时间。全程只有CAS，不加锁、不装箱。
+     * 0表示空槽位。
+     */
+    private static final class SlidingWindow {
+        private final AtomicLongArray ring;
+        private final AtomicLong      cursor = new AtomicLong();
+
+        private SlidingWindow(int capacity) {
+            this.ring = new AtomicLongArray(capacity);
+        }
+
+        private int capacity() {
+            return ring.length();
+        }
+
+        private long exchange(long now) {
+            int slot = (int) (cursor.getAndIncrement() % ring.length());
+            return ring.getAndSet(slot, now);
+        }
+
+        /**
+         * 容量变化（如修改了maxRequests）时，按先后顺序保留最近的请求时间
+         */
+        private SlidingWindow resize(int capacity) {
+            SlidingWindow resized = new SlidingWindow(capacity);
+            List<Long>    times   = snapshot();
+            for (int i = Math.max(0, times.size() - capacity); i < times.size(); i++) {
+                resized.exchange(times.get(i));
+            }
+            return resized;
+        }
+
+        private List<Long> snapshot() {
+            long       end   = cursor.get();
+            int        cap   = ring.length();
+            List<Long> times = new ArrayList<>(cap);
+            for (long i = Math.max(0, end - cap); i < end; i++) {
+                long time = ring.get((int) (i % cap));
+                if (time != 0) times.add(time);
+            }
+            return times;
+        }
+    }
+
 }
\ No newline at end of file
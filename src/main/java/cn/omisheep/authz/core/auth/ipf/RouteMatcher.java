@@ -0,0 +1,119 @@
+package cn.omisheep.authz.core.auth.ipf;
+
+import org.springframework.http.server.PathContainer;
+import org.springframework.lang.Nullable;
+import org.springframework.web.util.pattern.PathPattern;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * 按路径段编译的路由索引（segment trie），用于替代对全部 {@link PathPattern} 的线性扫描。
+ * <p>
+ * 字面量段走 HashMap 精确查找，含有变量或通配符的段统一落在 dynamic 分支，
+ * 末尾的 {@code **} 与 {@code {*var}} 挂在其所在节点上匹配剩余的任意段。
+ * trie 只负责筛选候选，候选最终仍由 {@link PathPattern#matches(PathContainer)} 校验，
+ * 多个候选同时匹配时按 {@link PathPattern#SPECIFICITY_COMPARATOR} 取最具体的一个。
+ * <p>
+ * 实例不可变，路由变化时整体重建后替换引用。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public final class RouteMatcher {
+
+    public static final RouteMatcher EMPTY = new RouteMatcher(Collections.emptyList());
+
+    private final Node root = new Node();
+
+    public RouteMatcher(Collection<PathPattern> patterns) {
+        for (PathPattern pattern : patterns) {
+            add(pattern);
+        }
+    }
+
+    /**
+     * @param path   servletPath
+     * @param filter 对候选pattern的额外过滤（如请求方法是否存在）
+     * @return 匹配到的最具体的pattern，没有则返回null
+     */
+    @Nullable
+    public String match(String path,
+                        Predicate<String> filter) {
+        PathContainer container = PathContainer.parsePath(path);
+        List<String>  segments  = new ArrayList<>();
+        for (PathContainer.Element element : container.elements()) {
+            if (element instanceof PathContainer.PathSegment) {
+                String value = ((PathContainer.PathSegment) element).valueToMatch();
+                if (!value.isEmpty()) segments.add(value);
+            }
+        }
+        PathPattern best = match(root, segments, 0, container, filter, null);
+        return best == null ? null : best.getPatternString();
+    }
+
+    private static PathPattern match(Node node,
+                                     List<String> segments,
+                                     int index,
+                                     PathContainer container,
+                                     Predicate<String> filter,
+                                     PathPattern best) {
+        for (PathPattern pattern : node.catchAll) {
+            best = better(pattern, container, filter, best);
+        }
+        if (index == segments.size()) {
+            for (PathPattern pattern : node.terminals) {
+                best = better(pattern, container, filter, best);
+            }
+            return best;
+        }
+        Node literal = node.literals.get(segments.get(index));
+        if (literal != null) best = match(literal, segments, index + 1, container, filter, best);
+        if (node.dynamic != null) best = match(node.dynamic, segments, index + 1, container, filter, best);
+        return best;
+    }
+
+    private static PathPattern better(PathPattern candidate,
+                                      PathContainer container,
+                                      Predicate<String> filter,
+                                      PathPattern best) {
+        if (best != null && PathPattern.SPECIFICITY_COMPARATOR.compare(candidate, best) >= 0) return best;
+        if (!filter.test(candidate.getPatternString())) return best;
+        if (!candidate.matches(container)) return best;
+        return candidate;
+    }
+
+    private void add(PathPattern pattern) {
+        Node node = root;
+        for (String segment : pattern.getPatternString().split("/")) {
+            if (segment.isEmpty()) continue;
+            if (segment.equals("**") || segment.startsWith("{*")) {
+                node.catchAll.add(pattern);
+                return;
+            }
+            if (isLiteral(segment)) {
+                node = node.literals.computeIfAbsent(segment, s -> new Node());
+            } else {
+                if (node.dynamic == null) node.dynamic = new Node();
+                node = node.dynamic;
+            }
+        }
+        node.terminals.add(pattern);
+    }
+
+    private static boolean isLiteral(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '{' || c == '*' || c == '?' || c == '%' || c == ';') return false;
+        }
+        return true;
+    }
+
+    private static class Node {
+        private final Map<String, Node>  literals  = new HashMap<>();
+        private final List<PathPattern> terminals = new ArrayList<>();
+        private final List<PathPattern> catchAll  = new ArrayList<>();
+        private       Node              dynamic;
+    }
+
+}
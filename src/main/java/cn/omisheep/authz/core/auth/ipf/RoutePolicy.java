@@ -0,0 +1,203 @@
+package cn.omisheep.authz.core.auth.ipf;
+
+import cn.omisheep.authz.core.auth.rpd.ParamMetadata;
+import cn.omisheep.authz.core.auth.rpd.PermRolesMeta;
+import cn.omisheep.authz.core.auth.rpd.PermissionDict;
+import cn.omisheep.authz.core.oauth.OpenAuthDict;
+import cn.omisheep.authz.support.util.IPRange;
+import cn.omisheep.authz.support.util.IPRangeMeta;
+import cn.omisheep.authz.support.util.IPRangeTrie;
+import lombok.Getter;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单个路由 (pattern, method) 的全部策略。
+ * <p>
+ * 在{@link PermissionDict}、{@link OpenAuthDict}、{@link Httpd}初始化完成以及每次通过
+ * {@link cn.omisheep.authz.core.AuthzManager}修改之后整体重建，
+ * AuthzHttpFilter匹配到路由后解析一次并放入{@link HttpMeta}，各个slot直接读取字段。
+ * 重建之前已经开始的请求继续使用旧的策略。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+@Getter
+public final class RoutePolicy {
+
+    /**
+     * 未匹配到路由，或者不受authz管理的请求
+     */
+    public static final RoutePolicy NONE = new RoutePolicy(null, null, null, null, null, null, null, null, null, null,
+                                                           null, AssociatedBans.NONE, false);
+
+    private static volatile Map<String, Map<String, RoutePolicy>> policies = Collections.emptyMap();
+
+    /**
+     * 按controller补全的策略，重建时清空
+     */
+    private static volatile Map<String, RoutePolicy> controllerPolicies = new ConcurrentHashMap<>();
+
+    private static volatile long generation = 0;
+
+    private final String                     api;
+    private final String                     method;
+    private final String                     controller;
+    @Nullable
+    private final PermRolesMeta              controllerPermRolesMeta;
+    @Nullable
+    private final PermRolesMeta              permRolesMeta;
+    @Nullable
+    private final Map<String, ParamMetadata> paramMetadata;
+    @Nullable
+    private final IPRangeMeta                ipRangeMeta;
+    @Nullable
+    private final IPRangeTrie<IPRange>       ipAllow;
+    @Nullable
+    private final IPRangeTrie<IPRange>       ipDeny;
+    @Nullable
+    private final LimitMeta                  limitMeta;
+    @Nullable
+    private final Httpd.RequestPool          ipRequestPool;
+    @Nullable
+    private final Httpd.RequestPool          userIdRequestPool;
+    @Nullable
+    private final OpenAuthDict.OAuthInfo     oauthInfo;
+    /**
+     * 覆盖该路由的关联封禁组
+     */
+    private final AssociatedBans.Group[]     associatedBans;
+    private final boolean                    hasApiAuth;
+    private final boolean                    hasParamAuth;
+    private final boolean                    requireLogin;
+
+    private RoutePolicy(String api,
+                        String method,
+                        String controller,
+                        PermRolesMeta controllerPermRolesMeta,
+                        PermRolesMeta permRolesMeta,
+                        Map<String, ParamMetadata> paramMetadata,
+                        IPRangeMeta ipRangeMeta,
+                        LimitMeta limitMeta,
+                        Httpd.RequestPool ipRequestPool,
+                        Httpd.RequestPool userIdRequestPool,
+                        OpenAuthDict.OAuthInfo oauthInfo,
+                        AssociatedBans.Group[] associatedBans,
+                        boolean certificated) {
+        this.api                     = api;
+        this.method                  = method;
+        this.controller              = controller;
+        this.controllerPermRolesMeta = nonNull(controllerPermRolesMeta);
+        this.permRolesMeta           = nonNull(permRolesMeta);
+        this.paramMetadata           = paramMetadata;
+        this.ipRangeMeta             = ipRangeMeta;
+        this.ipAllow                 = ipRangeMeta == null ? null : IPRangeTrie.of(ipRangeMeta.getAllow());
+        this.ipDeny                  = ipRangeMeta == null ? null : IPRangeTrie.of(ipRangeMeta.getDeny());
+        this.limitMeta               = limitMeta;
+        this.ipRequestPool           = ipRequestPool;
+        this.userIdRequestPool       = userIdRequestPool;
+        this.oauthInfo               = oauthInfo == null || oauthInfo.non() ? null : oauthInfo;
+        this.associatedBans          = associatedBans;
+        this.hasApiAuth              = this.controllerPermRolesMeta != null || this.permRolesMeta != null;
+        this.hasParamAuth            = paramMetadata != null && paramMetadata.values()
+                .stream()
+                .anyMatch(ParamMetadata::hasParamAuth);
+        this.requireLogin            = certificated || hasApiAuth || hasParamAuth;
+    }
+
+    private static PermRolesMeta nonNull(PermRolesMeta permRolesMeta) {
+        return permRolesMeta == null || permRolesMeta.non() ? null : permRolesMeta;
+    }
+
+    /**
+     * @param api    匹配到的pattern
+     * @param method 请求方法
+     * @return 路由策略，不存在时返回{@link #NONE}
+     */
+    @NonNull
+    public static RoutePolicy of(String api,
+                                 String method) {
+        if (api == null || method == null) return NONE;
+        Map<String, RoutePolicy> map = policies.get(api);
+        if (map == null) return NONE;
+        RoutePolicy routePolicy = map.get(method);
+        return routePolicy == null ? NONE : routePolicy;
+    }
+
+    /**
+     * 方法级的策略只按显式声明的请求方法登记，未声明请求方法的映射（如只有{@code @RequestMapping}）匹配不到策略，
+     * 登记的controller也可能与实际处理请求的controller不同。此时按处理请求的controller补全
+     * controller上的{@code @Auth}、{@code @Certificated}，不会因为缺少方法级的登记而跳过controller级的鉴权
+     *
+     * @param routePolicy 匹配到的策略，可以为{@link #NONE}
+     * @param controller  处理请求的controller
+     * @return 补全之后的策略，controller上没有任何限制时返回原策略
+     */
+    @NonNull
+    public static RoutePolicy withController(@NonNull RoutePolicy routePolicy,
+                                             @Nullable String controller) {
+        if (controller == null || controller.equals(routePolicy.controller)) return routePolicy;
+        PermRolesMeta controllerPermRolesMeta = nonNull(PermissionDict.getControllerRolePermission().get(controller));
+        boolean       certificated            = PermissionDict.getControllerCertificatedMetadata().contains(controller);
+        if (controllerPermRolesMeta == null && !certificated) return routePolicy;
+        return controllerPolicies.computeIfAbsent(
+                routePolicy.method + " " + routePolicy.api + " " + controller,
+                k -> new RoutePolicy(routePolicy.api, routePolicy.method, controller, controllerPermRolesMeta,
+                                     routePolicy.permRolesMeta, routePolicy.paramMetadata, routePolicy.ipRangeMeta,
+                                     routePolicy.limitMeta, routePolicy.ipRequestPool,
+                                     routePolicy.userIdRequestPool, routePolicy.oauthInfo,
+                                     routePolicy.associatedBans, certificated || routePolicy.requireLogin));
+    }
+
+    /**
+     * @return 策略的版本，每次重建后加一，依赖于策略的缓存据此失效
+     */
+    public static long generation() {
+        return generation;
+    }
+
+    /**
+     * 重建所有路由的策略，在字典初始化以及修改之后调用
+     */
+    public static synchronized void rebuild() {
+        AssociatedBans.rebuild();
+        Map<String, String> controllers = new HashMap<>();
+        PermissionDict.getControllerMetadata().forEach((controller, list) -> list.forEach(
+                m -> controllers.put(m.get("method") + " " + m.get("path"), controller)));
+
+        Set<String>                           controllerCertificated = PermissionDict.getControllerCertificatedMetadata();
+        Map<String, Map<String, RoutePolicy>> map                    = new HashMap<>();
+        Httpd.getIpRequestPools().forEach((api, methods) -> methods.keySet().forEach(method -> {
+            String      controller   = controllers.get(method + " " + api);
+            Set<String> certificated = PermissionDict.getCertificatedMetadata().get(api);
+            RoutePolicy routePolicy = new RoutePolicy(
+                    api, method, controller,
+                    controller == null ? null : PermissionDict.getControllerRolePermission().get(controller),
+                    get(PermissionDict.getRolePermission(), api, method),
+                    get(PermissionDict.getParamPermission(), api, method),
+                    get(PermissionDict.getIPRange(), api, method),
+                    Httpd.getLimitMetadata(method, api),
+                    Httpd.getIpRequestPools(api, method),
+                    Httpd.getUserIdRequestPool(api, method),
+                    get(OpenAuthDict.getSrc(), api, method),
+                    AssociatedBans.of(method, api),
+                    (controller != null && controllerCertificated.contains(controller))
+                            || (certificated != null && certificated.contains(method)));
+            map.computeIfAbsent(api, r -> new HashMap<>()).put(method, routePolicy);
+        }));
+        policies           = Collections.unmodifiableMap(map);
+        controllerPolicies = new ConcurrentHashMap<>();
+        generation++;
+    }
+
+    private static <V> V get(Map<String, ? extends Map<String, V>> map,
+                             String api,
+                             String method) {
+        Map<String, V> m = map.get(api);
+        return m == null ? null : m.get(method);
+    }
+
+}
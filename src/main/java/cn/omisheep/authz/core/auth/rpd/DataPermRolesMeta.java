@@ -1,9 +1,14 @@
 package cn.omisheep.authz.core.auth.rpd;
 
+import cn.omisheep.authz.core.util.ArgsParser;
 import cn.omisheep.authz.core.util.RuleParser;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.experimental.Accessors;
 
 import java.util.*;
@@ -23,6 +28,11 @@ public class DataPermRolesMeta extends PermRolesMeta {
     private Rule                      rule;
     private Map<String, List<String>> argsMap;
 
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient volatile ArgsParser.Template template;
+
     public static DataPermRolesMeta of(String condition) {
         return new DataPermRolesMeta().setRule(RuleParser.parseStringToRule(condition)).setCondition(condition);
     }
@@ -31,10 +41,23 @@ public class DataPermRolesMeta extends PermRolesMeta {
         return new DataPermRolesMeta().setCondition(RuleParser.parseRuleToString(rule)).setRule(rule);
     }
 
+    public DataPermRolesMeta setCondition(String condition) {
+        this.condition = condition;
+        this.template  = null;
+        return this;
+    }
+
+    public DataPermRolesMeta setArgsMap(Map<String, List<String>> argsMap) {
+        this.argsMap  = argsMap;
+        this.template = null;
+        return this;
+    }
+
     public DataPermRolesMeta addArg(String source,
                                     List<String> args) {
         if (argsMap == null) argsMap = new HashMap<>();
         argsMap.put(source, args);
+        this.template = null;
         return this;
     }
 
@@ -42,6 +65,26 @@ public class DataPermRolesMeta extends PermRolesMeta {
                        String... args) {
         if (argsMap == null) argsMap = new HashMap<>();
         if (args != null) argsMap.put(source, Arrays.stream(args).collect(Collectors.toList()));
+        this.template = null;
+    }
+
+    /**
+     * 预编译condition，在PermissionDict初始化及修改时调用
+     */
+    public DataPermRolesMeta compile() {
+        this.template = ArgsParser.compile(this);
+        return this;
+    }
+
+    /**
+     * condition或argsMap修改后模板会被清除，此时重新编译
+     *
+     * @return 编译后的condition模板
+     */
+    public ArgsParser.Template _getTemplate() {
+        ArgsParser.Template t = template;
+        if (t == null) template = t = ArgsParser.compile(this);
+        return t;
     }
 
 }
@@ -1,7 +1,10 @@
 package cn.omisheep.authz.core.auth.rpd;
 
+import cn.omisheep.authz.core.util.ValueMatcher;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.experimental.Accessors;
 
 import java.util.Set;
@@ -18,6 +21,13 @@ public class ParamPermRolesMeta extends PermRolesMeta {
     private Set<String> range; // scope of access
     private Set<String> resources; // required protect resources
 
+    @JsonIgnore
+    @ToString.Exclude
+    private transient volatile ValueMatcher.Matcher rangeMatcher;
+    @JsonIgnore
+    @ToString.Exclude
+    private transient volatile ValueMatcher.Matcher resourcesMatcher;
+
     public Set<String> getRange() {
         return range;
     }
@@ -26,6 +36,50 @@ public class ParamPermRolesMeta extends PermRolesMeta {
         return resources;
     }
 
+    public ParamPermRolesMeta setRange(Set<String> range) {
+        this.range        = range;
+        this.rangeMatcher = null;
+        return this;
+    }
+
+    public ParamPermRolesMeta setResources(Set<String> resources) {
+        this.resources        = resources;
+        this.resourcesMatcher = null;
+        return this;
+    }
+
+    /**
+     * range修改后重新编译
+     *
+     * @param valueTypeName 参数类型
+     * @param valueType     参数的匹配类型
+     * @return 编译后的range
+     */
+    public ValueMatcher.Matcher _getRangeMatcher(String valueTypeName,
+                                                 ValueMatcher.ValueType valueType) {
+        ValueMatcher.Matcher m = rangeMatcher;
+        if (m == null || !m.getValueTypeName().equals(valueTypeName)) {
+            rangeMatcher = m = ValueMatcher.compile(range, valueTypeName, valueType);
+        }
+        return m;
+    }
+
+    /**
+     * resources修改后重新编译
+     *
+     * @param valueTypeName 参数类型
+     * @param valueType     参数的匹配类型
+     * @return 编译后的resources
+     */
+    public ValueMatcher.Matcher _getResourcesMatcher(String valueTypeName,
+                                                     ValueMatcher.ValueType valueType) {
+        ValueMatcher.Matcher m = resourcesMatcher;
+        if (m == null || !m.getValueTypeName().equals(valueTypeName)) {
+            resourcesMatcher = m = ValueMatcher.compile(resources, valueTypeName, valueType);
+        }
+        return m;
+    }
+
     @Override
     public Set<Set<String>> getRequireRoles() {
         return super.getRequireRoles();
@@ -49,8 +103,10 @@ public class ParamPermRolesMeta extends PermRolesMeta {
     @Override
     public ParamPermRolesMeta clear() {
         super.clear();
-        range     = null;
-        resources = null;
+        range            = null;
+        resources        = null;
+        rangeMatcher     = null;
+        resourcesMatcher = null;
         return this;
     }
 
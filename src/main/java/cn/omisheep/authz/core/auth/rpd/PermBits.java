@@ -0,0 +1,242 @@
+package cn.omisheep.authz.core.auth.rpd;
+
+import cn.omisheep.authz.core.auth.PermLibrary;
+import org.springframework.lang.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 角色、权限的位图表示。
+ * <p>
+ * {@link PermRolesMeta}中出现过的角色名、权限名在编译时分配一个整数id（只增不减），
+ * 每个 require/exclude 编译为若干个位图（每一组一个），用户的角色、权限也转换为位图，
+ * 判断时只需逐字(long)做与运算，不再需要对字符串集合做包含判断。
+ * <p>
+ * 任意一组全部包含在用户的集合中即为匹配；require为空时视为满足，exclude为空时视为不排除。
+ * 用户拥有、但没有在任何规则中出现过的角色和权限不会分配id，因为它们不会影响结果。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public final class PermBits {
+
+    public static final Interner ROLES       = new Interner();
+    public static final Interner PERMISSIONS = new Interner();
+
+    private static final long[] EMPTY = new long[0];
+
+    private PermBits() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param permRolesMeta 权限规则
+     * @return 编译后的规则
+     */
+    public static Rule compile(PermRolesMeta permRolesMeta) {
+        return new Rule(compile(ROLES, permRolesMeta.getRequireRoles()),
+                        compile(ROLES, permRolesMeta.getExcludeRoles()),
+                        compile(PERMISSIONS, permRolesMeta.getRequirePermissions()),
+                        compile(PERMISSIONS, permRolesMeta.getExcludePermissions()));
+    }
+
+    /**
+     * @param roles       用户的角色
+     * @param permLibrary 获取角色的权限
+     * @return 用户的角色、权限位图
+     */
+    public static UserBits of(Collection<String> roles,
+                              PermLibrary permLibrary) {
+        if (roles == null || roles.isEmpty()) return of(Collections.emptyMap());
+        Map<String, Collection<String>> rolePermissions = new LinkedHashMap<>();
+        for (String role : roles) rolePermissions.put(role, permLibrary.getPermissionsByRole(role));
+        return of(rolePermissions);
+    }
+
+    /**
+     * 每次都按给定的内容重新计算。permLibrary（如近端缓存或者自定义实现）可能返回同一个集合实例并在原地修改，
+     * 不能以实例判断是否变化；按角色集合的复用由{@link RolePermissionsCache}完成
+     *
+     * @param rolePermissions 角色 -> 该角色的权限，值可以为null
+     * @return 用户的角色、权限位图
+     */
+    public static UserBits of(Map<String, ? extends Collection<String>> rolePermissions) {
+        if (rolePermissions.isEmpty()) return new UserBits(EMPTY, EMPTY, new long[0][]);
+        long[]   roleBits    = bits(ROLES, rolePermissions.keySet());
+        long[][] perRole     = new long[rolePermissions.size()][];
+        long[]   permissions = EMPTY;
+        int      i           = 0;
+        for (Collection<String> p : rolePermissions.values()) {
+            long[] bits = p == null ? EMPTY : bits(PERMISSIONS, p);
+            perRole[i++] = bits;
+            permissions  = or(permissions, bits);
+        }
+        return new UserBits(roleBits, permissions, perRole);
+    }
+
+    @Nullable
+    private static long[][] compile(Interner interner,
+                                    Set<Set<String>> groups) {
+        if (groups == null || groups.isEmpty()) return null;
+        long[][] compiled = new long[groups.size()][];
+        int      i        = 0;
+        for (Set<String> group : groups) {
+            long[] bits = EMPTY;
+            for (String name : group) bits = set(bits, interner.intern(name));
+            compiled[i++] = bits;
+        }
+        return compiled;
+    }
+
+    private static long[] bits(Interner interner,
+                               Collection<String> names) {
+        long[] bits = EMPTY;
+        for (String name : names) {
+            int id = interner.id(name);
+            if (id >= 0) bits = set(bits, id);
+        }
+        return bits;
+    }
+
+    private static long[] set(long[] bits,
+                              int id) {
+        int word = id >>> 6;
+        if (word >= bits.length) {
+            long[] n = new long[word + 1];
+            System.arraycopy(bits, 0, n, 0, bits.length);
+            bits = n;
+        }
+        bits[word] |= 1L << id;
+        return bits;
+    }
+
+    private static long[] or(long[] a,
+                             long[] b) {
+        if (b.length == 0) return a;
+        long[] r = new long[Math.max(a.length, b.length)];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = (i < a.length ? a[i] : 0) | (i < b.length ? b[i] : 0);
+        }
+        return r;
+    }
+
+    /**
+     * @param groups 编译后的 require/exclude
+     * @param bits   用户的位图
+     * @return 任意一组全部包含在bits中
+     */
+    static boolean anyContained(long[][] groups,
+                                long[] bits) {
+        for (long[] group : groups) {
+            if (contains(bits, group)) return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(long[] bits,
+                                    long[] group) {
+        for (int i = 0; i < group.length; i++) {
+            long word = i < bits.length ? bits[i] : 0;
+            if ((group[i] & ~word) != 0) return false;
+        }
+        return true;
+    }
+
+    public static final class Interner {
+        private final Map<String, Integer> ids  = new ConcurrentHashMap<>();
+        private final AtomicInteger        next = new AtomicInteger();
+
+        private Interner() {
+        }
+
+        public int intern(String name) {
+            Integer id = ids.get(name);
+            if (id != null) return id;
+            return ids.computeIfAbsent(name, n -> next.getAndIncrement());
+        }
+
+        /**
+         * @return 名称对应的id，未出现在任何规则中时返回-1
+         */
+        public int id(String name) {
+            Integer id = ids.get(name);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * @return 已分配的id数量，新增名称后位图缓存需要重新计算
+         */
+        public int version() {
+            return next.get();
+        }
+    }
+
+    /**
+     * 编译后的{@link PermRolesMeta}
+     */
+    public static final class Rule {
+        private final long[][] requireRoles;
+        private final long[][] excludeRoles;
+        private final long[][] requirePermissions;
+        private final long[][] excludePermissions;
+
+        private Rule(long[][] requireRoles,
+                     long[][] excludeRoles,
+                     long[][] requirePermissions,
+                     long[][] excludePermissions) {
+            this.requireRoles       = requireRoles;
+            this.excludeRoles       = excludeRoles;
+            this.requirePermissions = requirePermissions;
+            this.excludePermissions = excludePermissions;
+        }
+
+        public boolean hasRoles() {
+            return requireRoles != null || excludeRoles != null;
+        }
+
+        public boolean hasPermissions() {
+            return requirePermissions != null || excludePermissions != null;
+        }
+
+        public boolean checkRoles(UserBits user) {
+            return (requireRoles == null || anyContained(requireRoles, user.roles))
+                    && (excludeRoles == null || !anyContained(excludeRoles, user.roles));
+        }
+
+        /**
+         * require与所有角色权限的并集比较，exclude与每个角色各自的权限比较
+         */
+        public boolean checkPermissions(UserBits user) {
+            if (excludePermissions != null) {
+                for (long[] rolePermissions : user.rolePermissions) {
+                    if (anyContained(excludePermissions, rolePermissions)) return false;
+                }
+            }
+            return requirePermissions == null || anyContained(requirePermissions, user.permissions);
+        }
+    }
+
+    /**
+     * 用户的角色位图、权限位图（所有角色的并集）以及每个角色各自的权限位图
+     */
+    public static final class UserBits {
+        private final long[]   roles;
+        private final long[]   permissions;
+        private final long[][] rolePermissions;
+
+        private UserBits(long[] roles,
+                         long[] permissions,
+                         long[][] rolePermissions) {
+            this.roles           = roles;
+            this.permissions     = permissions;
+            this.rolePermissions = rolePermissions;
+        }
+    }
+
+}
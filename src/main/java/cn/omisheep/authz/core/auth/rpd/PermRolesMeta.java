@@ -21,12 +21,16 @@ public class PermRolesMeta implements Non {
     Meta roles;
     Meta permissions;
 
+    @JsonIgnore
+    private transient volatile PermBits.Rule bits;
+
     @Override
     public boolean non() {
         return (roles == null || roles.non()) && (permissions == null || permissions.non());
     }
 
     public PermRolesMeta clear() {
+        this.bits        = null;
         this.roles       = null;
         this.permissions = null;
         return this;
@@ -66,6 +70,7 @@ public class PermRolesMeta implements Non {
     }
 
     public void setRequireRoles(Set<Set<String>> requireRoles) {
+        this.bits = null;
         if (requireRoles == null || requireRoles.isEmpty()) {
             if (this.roles != null) this.roles.require = null;
         } else {
@@ -80,6 +85,7 @@ public class PermRolesMeta implements Non {
     }
 
     public void setExcludeRoles(Set<Set<String>> excludeRoles) {
+        this.bits = null;
         if (excludeRoles == null || excludeRoles.isEmpty()) {
             if (this.roles != null) this.roles.exclude = null;
         } else {
@@ -94,6 +100,7 @@ public class PermRolesMeta implements Non {
     }
 
     public void setRequirePermissions(Set<Set<String>> requirePermissions) {
+        this.bits = null;
         if (requirePermissions == null || requirePermissions.isEmpty()) {
             if (this.permissions != null) this.permissions.require = null;
         } else {
@@ -108,6 +115,7 @@ public class PermRolesMeta implements Non {
     }
 
     public void setExcludePermissions(Set<Set<String>> excludePermissions) {
+        this.bits = null;
         if (excludePermissions == null || excludePermissions.isEmpty()) {
             if (this.permissions != null) this.permissions.exclude = null;
         } else {
@@ -161,6 +169,7 @@ public class PermRolesMeta implements Non {
 
     public void setRoles(Set<Set<String>> require,
                          Set<Set<String>> exclude) {
+        this.bits = null;
         if ((require == null || require.isEmpty()) && (exclude == null || exclude.isEmpty())) {
             this.roles = null;
             return;
@@ -176,6 +185,7 @@ public class PermRolesMeta implements Non {
 
     public void setPermissions(Set<Set<String>> require,
                                Set<Set<String>> exclude) {
+        this.bits = null;
         if ((require == null || require.isEmpty()) && (exclude == null || exclude.isEmpty())) {
             this.permissions = null;
             return;
@@ -185,6 +195,7 @@ public class PermRolesMeta implements Non {
     }
 
     public PermRolesMeta merge(PermRolesMeta other) {
+        this.bits = null;
         if (other == null) return this;
         if (permissions == null) {
             setExcludePermissions(other.getExcludePermissions());
@@ -207,6 +218,25 @@ public class PermRolesMeta implements Non {
         return this;
     }
 
+    /**
+     * 预编译为位图，在PermissionDict初始化及修改时调用
+     */
+    public PermRolesMeta compileBits() {
+        this.bits = PermBits.compile(this);
+        return this;
+    }
+
+    /**
+     * 规则修改后位图会被清除，此时重新编译
+     *
+     * @return 编译后的规则
+     */
+    public PermBits.Rule _getBits() {
+        PermBits.Rule b = bits;
+        if (b == null) bits = b = PermBits.compile(this);
+        return b;
+    }
+
     @Override
     public String toString() {
         return (roles != null ? "( role : " + roles + " )" : "") +
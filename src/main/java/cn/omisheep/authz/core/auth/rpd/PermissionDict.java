@@ -9,6 +9,7 @@ import cn.omisheep.authz.core.cache.Cache;
 import cn.omisheep.authz.core.config.AuInit;
 import cn.omisheep.authz.core.config.AuthzAppVersion;
 import cn.omisheep.authz.core.config.Constants;
+import cn.omisheep.authz.core.interceptor.SqlRewriteCache;
 import cn.omisheep.authz.core.msg.AuthzModifier;
 import cn.omisheep.authz.core.schema.Model;
 import cn.omisheep.authz.core.schema.ModelParser;
@@ -16,6 +17,7 @@ import cn.omisheep.authz.core.util.RedisUtils;
 import cn.omisheep.authz.core.util.ValueMatcher;
 import cn.omisheep.authz.support.util.IPRange;
 import cn.omisheep.authz.support.util.IPRangeMeta;
+import cn.omisheep.authz.support.util.IPRangeTrie;
 import cn.omisheep.commons.util.Async;
 import cn.omisheep.web.entity.ResponseResultMap;
 import lombok.Getter;
@@ -118,6 +120,10 @@ public class PermissionDict {
      */
     private static final Set<IPRange> _globalDeny = new HashSet<>();
 
+    private static volatile IPRangeTrie<IPRange> _globalAllowTrie = new IPRangeTrie<>();
+
+    private static volatile IPRangeTrie<IPRange> _globalDenyTrie = new IPRangeTrie<>();
+
     // ----------------------------------------- unModify ----------------------------------------- //
 
     @Getter
@@ -160,6 +166,20 @@ public class PermissionDict {
     private static final Map<String, List<Map<String, String>>>               controllerMetadata             = Collections.unmodifiableMap(
             _controllerMetadata);
 
+    /**
+     * @return 全局允许的ip范围，前缀树形式
+     */
+    public static IPRangeTrie<IPRange> getGlobalAllowTrie() {
+        return _globalAllowTrie;
+    }
+
+    /**
+     * @return 全局拦截的ip范围，前缀树形式
+     */
+    public static IPRangeTrie<IPRange> getGlobalDenyTrie() {
+        return _globalDenyTrie;
+    }
+
     public static boolean isSupportNative() {
         return PermissionDict._supportNative;
     }
@@ -329,7 +349,7 @@ public class PermissionDict {
                             _authzControllerMetadata.remove(controller);
                             return AuthzResult.SUCCESS.data("auth", new PermRolesMeta()).data("hasAuth", false);
                         } else {
-                            _authzControllerMetadata.put(controller, build);
+                            _authzControllerMetadata.put(controller, build.compileBits());
                         }
                         return AuthzResult.SUCCESS.data("auth", build).data("hasAuth", !build.non());
                     }
@@ -338,7 +358,8 @@ public class PermissionDict {
                         _authzMetadata.computeIfAbsent(api, r -> new HashMap<>())
                                 .computeIfAbsent(authzModifier.getMethod(), r -> new PermRolesMeta())
                                 .clear()
-                                .merge(build);
+                                .merge(build)
+                                .compileBits();
                     }
 
                     Map<String, PermRolesMeta> metaMap = _authzMetadata.get(api);
@@ -497,7 +518,7 @@ public class PermissionDict {
                         PermRolesMeta build = authzModifier.build();
                         dataPermRolesMeta.setRoles(build.roles);
                         dataPermRolesMeta.setPermissions(build.permissions);
-                        dataPermRolesMeta.setArgsMap(authzModifier.getArgsMap());
+                        dataPermRolesMeta.setArgsMap(authzModifier.getArgsMap()).compile();
                         _dataPermMetadata.computeIfAbsent(className, r -> new ArrayList<>()).add(dataPermRolesMeta);
                         break;
                     case MODIFY:
@@ -528,6 +549,7 @@ public class PermissionDict {
                         if (authzModifier.getArgsMap() != null) {
                             old_data_mata.setArgsMap(authzModifier.getArgsMap());
                         }
+                        old_data_mata.compile();
                         break;
                     case DEL:
                     case DELETE:
@@ -546,6 +568,7 @@ public class PermissionDict {
                     default:
                         return AuthzResult.FAIL;
                 }
+                SqlRewriteCache.invalidateAll();
                 return dataPermission.get(className);
             } else {
                 switch (authzModifier.getOperate()) {
@@ -624,6 +647,7 @@ public class PermissionDict {
         _fieldMetadata.putAll(fieldMetadata);
         _dataPermMetadata.putAll(map);
         _argsMetadata.putAll(args);
+        _dataPermMetadata.values().forEach(list -> list.forEach(DataPermRolesMeta::compile));
     }
 
     @SuppressWarnings({"unchecked", "rawtypes"})
@@ -803,8 +827,13 @@ public class PermissionDict {
 
         _globalAllow.addAll(IPRangeMeta.parse(AuthzAppVersion.properties.getGlobalIpRange().getAllow()));
         _globalDeny.addAll(IPRangeMeta.parse(AuthzAppVersion.properties.getGlobalIpRange().getDeny()));
+        _globalAllowTrie = IPRangeTrie.of(_globalAllow);
+        _globalDenyTrie  = IPRangeTrie.of(_globalDeny);
         _supportNative = AuthzAppVersion.properties.getGlobalIpRange().isSupportNative();
 
+        _authzMetadata.values().forEach(m -> m.values().forEach(PermRolesMeta::compileBits));
+        _authzControllerMetadata.values().forEach(PermRolesMeta::compileBits);
+
         if (AuthzAppVersion.properties.getCache().isEnableRedis()) {
             Async.run(() -> {
                 List<Set<String>> toBeLoadedRolesKeys = RedisUtils.Obj.get(toBeLoadedRoles.stream()
@@ -826,6 +855,7 @@ public class PermissionDict {
                         }
                     }
                 });
+                RolePermissionsCache.invalidateAll();
             });
         }
     }
@@ -0,0 +1,152 @@
+package cn.omisheep.authz.core.auth.rpd;
+
+import cn.omisheep.authz.core.config.Constants;
+import cn.omisheep.authz.core.helper.BaseHelper;
+import cn.omisheep.authz.core.msg.CacheMessage;
+import cn.omisheep.commons.util.TimeUtils;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 角色集合 -> 这些角色权限的并集。
+ * <p>
+ * 大量用户的角色组合是相同的，所以按排序后的角色集合共享同一份不可变的权限并集及其位图，
+ * 每个请求只需一次map查找，不再逐个角色调用permLibrary并合并。
+ * <p>
+ * 缓存的存活时间为permissionsByRoleRefreshTime，过期后重新调用permLibrary，从而触发PermLibraryCache的刷新；
+ * 任意角色的权限被重新加载或者修改时（包括其他实例的修改通过{@link CacheMessage}同步过来时），所有缓存失效。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public class RolePermissionsCache extends BaseHelper {
+
+    private static final long MAXIMUM_SIZE = 4096;
+
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final Cache<List<String>, Closure> closures;
+
+    static {
+        String time = properties.getCache().getPermissionsByRoleRefreshTime();
+        long   ttl  = StringUtils.isEmpty(time) ? 0 : TimeUtils.parseTimeValue(time);
+        closures = ttl > 0 ? Caffeine.newBuilder()
+                .maximumSize(MAXIMUM_SIZE)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .build() : null;
+    }
+
+    private RolePermissionsCache() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param roles 用户的角色
+     * @return 角色权限的并集及其位图
+     */
+    public static Closure get(Collection<String> roles) {
+        if (roles == null || roles.isEmpty()) return Closure.EMPTY;
+        if (closures == null) return compute(roles, generation.get());
+
+        List<String> key = canonical(roles);
+        Closure      c   = closures.getIfPresent(key);
+        if (c != null && c.generation == generation.get() && c.version == PermBits.PERMISSIONS.version()) return c;
+        c = compute(key, generation.get());
+        closures.put(key, c);
+        return c;
+    }
+
+    /**
+     * 角色的权限被重新加载或修改时调用
+     */
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+        if (closures != null) closures.invalidateAll();
+    }
+
+    private static List<String> canonical(Collection<String> roles) {
+        String[] array = roles.toArray(new String[0]);
+        Arrays.sort(array);
+        return Collections.unmodifiableList(Arrays.asList(array));
+    }
+
+    private static Closure compute(Collection<String> roles,
+                                   long generation) {
+        int                             version         = PermBits.PERMISSIONS.version();
+        HashSet<String>                 perms           = new HashSet<>();
+        Map<String, Collection<String>> rolePermissions = new LinkedHashMap<>();
+        for (String role : roles) {
+            Collection<String> permissionsByRole = permLibrary.getPermissionsByRole(role);
+            // 复制一份，permLibrary返回的集合可能在之后被原地修改
+            Collection<String> copy = permissionsByRole == null ? null : new ArrayList<>(permissionsByRole);
+            rolePermissions.put(role, copy);
+            if (copy != null) perms.addAll(copy);
+        }
+        return new Closure(Collections.unmodifiableSet(perms), PermBits.of(rolePermissions), generation, version);
+    }
+
+    /**
+     * @param key 缓存key
+     * @return 是否为角色权限的缓存key
+     */
+    public static boolean isPermissionsByRoleKey(String key) {
+        return key != null && key.startsWith(Constants.PERMISSIONS_BY_ROLE_KEY_PREFIX.get());
+    }
+
+    /**
+     * 其他实例修改角色的权限时只会收到使本地缓存失效的{@link CacheMessage}，这里同样使按角色组合缓存的权限并集失效
+     *
+     * @param message 缓存消息
+     */
+    public static void receive(CacheMessage message) {
+        if (isPermissionsByRoleKey(message.getPattern())) {
+            invalidateAll();
+            return;
+        }
+        Set<String> keys = message.getKeys();
+        if (keys == null) return;
+        for (String key : keys) {
+            if (isPermissionsByRoleKey(key)) {
+                invalidateAll();
+                return;
+            }
+        }
+    }
+
+    public static final class Closure {
+        static final Closure EMPTY = new Closure(Collections.emptySet(), PermBits.of(Collections.emptyMap()), -1,
+                                                 -1);
+
+        private final Set<String>       permissions;
+        private final PermBits.UserBits bits;
+        private final long              generation;
+        private final int               version;
+
+        private Closure(Set<String> permissions,
+                        PermBits.UserBits bits,
+                        long generation,
+                        int version) {
+            this.permissions = permissions;
+            this.bits        = bits;
+            this.generation  = generation;
+            this.version     = version;
+        }
+
+        /**
+         * @return 所有角色权限的并集，不可修改
+         */
+        public Set<String> getPermissions() {
+            return permissions;
+        }
+
+        public PermBits.UserBits getBits() {
+            return bits;
+        }
+    }
+
+}
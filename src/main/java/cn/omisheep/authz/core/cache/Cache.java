@@ -187,6 +187,18 @@ public interface Cache {
      */
     void set(@NonNull Map<String, ?> elements);
 
+    /**
+     * 批量插入，不发送缓存同步消息
+     *
+     * @param elements 键值
+     * @param ms       毫秒
+     * @since 1.2.14
+     */
+    default void setSneaky(@NonNull Map<String, ?> elements,
+                           long ms) {
+        elements.forEach((k, v) -> setSneaky(k, v, ms));
+    }
+
     /**
      * @param key     键
      * @param element 值
@@ -12,18 +12,23 @@ import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.github.benmanes.caffeine.cache.Scheduler;
+import org.apache.commons.lang.StringUtils;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static cn.omisheep.authz.core.config.Constants.USER_REQUEST;
 import static cn.omisheep.commons.util.ClassUtils.castValue;
 
 /**
  * 双层同步缓存
+ * <p>
+ * 配置了refreshAfterWriteTime时为近端缓存模式：读取直接使用本地值，本地值超过阈值后在下一次读取时异步刷新，
+ * 其余时间依赖缓存消息保持一致；否则每次读取都会从redis刷新一次。
  *
  * @author zhouxinchen[1269670415@qq.com]
  * @since 1.0.0
@@ -35,6 +40,15 @@ public class L2Cache implements Cache {
 
     private final ConcurrentSkipListSet<String> keyPatterns = new ConcurrentSkipListSet<>();
 
+    /**
+     * 为true时每次读取都从redis刷新
+     */
+    private final boolean refreshOnRead;
+
+    private final LongAdder localReads     = new LongAdder();
+    private final LongAdder redisLoads     = new LongAdder();
+    private final LongAdder redisRefreshes = new LongAdder();
+
     public L2Cache(AuthzProperties properties) {
         Caffeine<String, CacheItem> caffeine = Caffeine.newBuilder().scheduler(Scheduler.systemScheduler()).expireAfter(
                 new CacheExpiry(TimeUtils.parseTimeValue(properties.getCache().getExpireAfterCreateTime()),
@@ -43,9 +57,22 @@ public class L2Cache implements Cache {
         );
         Long cacheMaximumSize = properties.getCache().getCacheMaximumSize();
         if (cacheMaximumSize != null) caffeine.maximumSize(cacheMaximumSize);
+        String refreshAfterWriteTime = properties.getCache().getRefreshAfterWriteTime();
+        long refreshAfterWrite = StringUtils.isEmpty(refreshAfterWriteTime) ? 0 : TimeUtils.parseTimeValue(
+                refreshAfterWriteTime);
+        refreshOnRead = refreshAfterWrite <= 0;
+        if (!refreshOnRead) caffeine.refreshAfterWrite(refreshAfterWrite, TimeUnit.MILLISECONDS);
         cache = caffeine.build(new CacheLoader<String, CacheItem>() {
             @Override
             public @Nullable CacheItem load(@NonNull String key) {
+                redisLoads.increment();
+                return RedisUtils.Obj.get(key, CacheItem.class);
+            }
+
+            @Override
+            public @Nullable CacheItem reload(@NonNull String key,
+                                              @NonNull CacheItem oldValue) {
+                redisRefreshes.increment();
                 return RedisUtils.Obj.get(key, CacheItem.class);
             }
 
@@ -54,6 +81,7 @@ public class L2Cache implements Cache {
                     @NonNull Iterable<? extends @NonNull String> keys) {
                 List<String> list = new ArrayList<>();
                 keys.forEach(list::add);
+                redisLoads.add(list.size());
                 HashMap<String, CacheItem> map       = new HashMap<>();
                 List<CacheItem>            valueList = RedisUtils.Obj.get(list);
                 Iterator<CacheItem>        iterator  = valueList.iterator();
@@ -144,6 +172,19 @@ public class L2Cache implements Cache {
         });
     }
 
+    @Override
+    public void setSneaky(@NonNull Map<String, ?> elements,
+                          long ms) {
+        if (elements.isEmpty() || ms < -1 || ms == 0) return;
+        HashMap<String, CacheItem> items = new HashMap<>();
+        elements.forEach((k, v) -> items.put(k, new CacheItem(ms, v)));
+        cache.putAll(items);
+        Async.run(() -> {
+            removePatterns(items.keySet());
+            RedisUtils.Obj.set(items, ms);
+        });
+    }
+
     @Override
     public <E> void setSneaky(@NonNull String key,
                               @Nullable E element) {
@@ -181,7 +222,8 @@ public class L2Cache implements Cache {
 
     @Override
     public @Nullable Object get(String key) {
-        cache.refresh(key);
+        localReads.increment();
+        if (refreshOnRead) cache.refresh(key);
         CacheItem item = cache.get(key);
         return item != null ? item.value : null;
     }
@@ -190,8 +232,9 @@ public class L2Cache implements Cache {
     public @NonNull Map<String, Object> get(Set<String> keys) {
         HashMap<String, Object> map = new HashMap<>();
         if (keys.isEmpty()) return map;
+        localReads.add(keys.size());
         cache.getAll(keys).forEach((k, v) -> {
-            cache.refresh(k);
+            if (refreshOnRead) cache.refresh(k);
             map.put(k, v.value);
         });
         return map;
@@ -202,9 +245,10 @@ public class L2Cache implements Cache {
                                            @NonNull Class<T> requiredType) {
         HashMap<String, T> map = new HashMap<>();
         if (keys.isEmpty()) return map;
+        localReads.add(keys.size());
         Map<String, CacheItem> items = cache.getAll(keys);
         items.forEach((k, v) -> {
-            cache.refresh(k);
+            if (refreshOnRead) cache.refresh(k);
             if (v.value == null) {
                 map.put(k, null);
             } else {
@@ -297,6 +341,26 @@ public class L2Cache implements Cache {
         return Collections.unmodifiableMap(cache.asMap());
     }
 
+    /**
+     * 读取计数。每次读取都刷新时，每个读取的key都会产生一次redis读取，
+     * savedRedisReads 为近端缓存模式下相比之下少发出的redis读取数
+     *
+     * @return localReads 读取的key数，redisLoads 本地未命中的加载数，redisRefreshes 刷新数，savedRedisReads 节省的redis读取数
+     * @since 1.2.14
+     */
+    public Map<String, Long> metrics() {
+        long                  reads     = localReads.sum();
+        long                  loads     = redisLoads.sum();
+        long                  refreshes = redisRefreshes.sum();
+        HashMap<String, Long> map       = new HashMap<>();
+        map.put("localReads", reads);
+        map.put("redisLoads", loads);
+        map.put("redisRefreshes", refreshes);
+        // 本地未命中的读取同样会访问redis，不计入节省
+        map.put("savedRedisReads", refreshOnRead ? 0 : Math.max(reads - loads - refreshes, 0));
+        return map;
+    }
+
     private void removePatterns(String key) {
         List<String> list = KeyMatchUtils.matchPatterns(key, keyPatterns);
         list.forEach(keyPatterns::remove);
@@ -1,18 +1,32 @@
 package cn.omisheep.authz.core.cache.library;
 
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
+import cn.omisheep.authz.core.auth.rpd.RolePermissionsCache;
 import cn.omisheep.authz.core.cache.Cache;
 import cn.omisheep.authz.core.helper.BaseHelper;
 import cn.omisheep.authz.core.AuthzContext;
+import cn.omisheep.authz.core.config.Constants;
 import cn.omisheep.authz.core.util.LogUtils;
 import cn.omisheep.commons.util.Async;
+import cn.omisheep.commons.util.TimeUtils;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.apache.commons.lang.StringUtils;
 import org.aspectj.lang.ProceedingJoinPoint;
 
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
 /**
+ * library的缓存刷新。
+ * <p>
+ * 缓存命中时，只有距上次加载超过刷新间隔才会在后台重新调用library，同一个key同时只有一个刷新任务；
+ * 缓存未命中时同一个key只有一个线程调用library，其余线程等待其结果。
+ *
  * @author zhouxinchen
  * @since 1.2.0
  */
@@ -20,25 +34,74 @@ public class L2RefreshCacheSupport extends BaseHelper {
 
     static final ThreadLocal<Boolean> isLibrary = ThreadLocal.withInitial(() -> Boolean.FALSE);
 
-    private static final ConcurrentHashMap<String, CompletableFuture<?>> refreshCache = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, CompletableFuture<Void>> refreshCache = new ConcurrentHashMap<>();
+
+    private static final ConcurrentHashMap<String, CompletableFuture<Object>> loadingCache = new ConcurrentHashMap<>();
+
+    /**
+     * key -> 下一次允许刷新的时间，存在即表示还未到刷新时间
+     */
+    private static final com.github.benmanes.caffeine.cache.Cache<String, Long> freshKeys = Caffeine.newBuilder()
+            .expireAfter(new Expiry<String, Long>() {
+                @Override
+                public long expireAfterCreate(String key,
+                                              Long refreshAt,
+                                              long currentTime) {
+                    return TimeUnit.MILLISECONDS.toNanos(Math.max(refreshAt - TimeUtils.nowTime(), 0));
+                }
+
+                @Override
+                public long expireAfterUpdate(String key,
+                                              Long refreshAt,
+                                              long currentTime,
+                                              long currentDuration) {
+                    return expireAfterCreate(key, refreshAt, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(String key,
+                                            Long refreshAt,
+                                            long currentTime,
+                                            long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .build();
 
     public static boolean isLibrary() {
         return isLibrary.get();
     }
 
+    /**
+     * @param time 刷新间隔，单位 ms|s|m|h|d
+     * @return 毫秒，为空时返回0
+     */
+    static long parseRefreshInterval(String time) {
+        if (StringUtils.isEmpty(time)) return 0;
+        return TimeUtils.parseTimeValue(time);
+    }
+
+    /**
+     * 缓存命中时调用，距上次加载未超过interval时不刷新
+     *
+     * @param key       缓存key
+     * @param joinPoint library调用
+     * @param interval  刷新间隔 毫秒，小于等于0时每次都刷新
+     */
     public static void refresh(String key,
-                               ProceedingJoinPoint joinPoint) {
-        CompletableFuture<?> completableFuture = refreshCache.get(key);
-        if (completableFuture != null) {
-            LogUtils.debug("重复的刷新任务 key : {} ", key);
-            if (Async.isSuccessFuture(completableFuture)) {
-                refreshCache.remove(key);
-            } else {
-                LogUtils.debug("刷新任务未完成 key : {} ", key);
-            }
-        } else {
-            HttpMeta currentHttpMeta = AuthzContext.getCurrentHttpMeta();
-            CompletableFuture<Void> future = Async.run(() -> {
+                               ProceedingJoinPoint joinPoint,
+                               long interval) {
+        if (interval > 0 && freshKeys.getIfPresent(key) != null) return;
+        // 先占位再提交任务，不在map的锁内执行；执行器拒绝或者在当前线程执行时也不会持有锁调用library
+        CompletableFuture<Void> future  = new CompletableFuture<>();
+        CompletableFuture<Void> running = refreshCache.putIfAbsent(key, future);
+        if (running != null) {
+            LogUtils.debug("刷新任务未完成 key : {} ", key);
+            return;
+        }
+        HttpMeta currentHttpMeta = AuthzContext.getCurrentHttpMeta();
+        try {
+            Async.run(() -> {
                 try {
                     isLibrary.set(Boolean.TRUE);
                     AuthzContext.currentHttpMeta.set(currentHttpMeta);
@@ -46,19 +109,81 @@ public class L2RefreshCacheSupport extends BaseHelper {
                     Cache.CacheItem<?> item = cache.asRawMap().get(key);
                     if (item == null) {
                         cache.set(key, v1);
+                        changed(key);
                     } else {
                         if (!Objects.equals(item.getValue(), v1)) {
                             LogUtils.debug("key : {} new-value : {} old-value : {} ", key, item.getValue(), v1);
                             cache.set(key, v1);
+                            changed(key);
                         }
                     }
+                    markRefreshed(key, interval);
                 } catch (Throwable e) {
                     LogUtils.error(e);
                 } finally {
                     isLibrary.set(Boolean.FALSE);
+                    done(key, future);
                 }
             });
-            refreshCache.put(key, future);
+        } catch (Throwable e) {
+            LogUtils.error(e);
+            done(key, future);
         }
     }
+
+    private static void done(String key,
+                             CompletableFuture<Void> future) {
+        refreshCache.remove(key, future);
+        future.complete(null);
+    }
+
+    /**
+     * 缓存未命中时调用，同一个key同时只有一个线程调用library并写入缓存，其余线程等待并共享结果
+     *
+     * @param key       缓存key
+     * @param joinPoint library调用
+     * @param interval  刷新间隔 毫秒
+     * @param mapper    对library返回值的处理（如null转为空集合）
+     * @return 写入缓存的值
+     * @throws Throwable library异常
+     */
+    public static Object load(String key,
+                              ProceedingJoinPoint joinPoint,
+                              long interval,
+                              UnaryOperator<Object> mapper) throws Throwable {
+        CompletableFuture<Object> future   = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loadingCache.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+        try {
+            Object result = mapper.apply(joinPoint.proceed());
+            cache.set(key, result);
+            changed(key);
+            markRefreshed(key, interval);
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadingCache.remove(key, future);
+        }
+    }
+
+    /**
+     * 角色的权限发生变化时，按角色组合缓存的权限并集需要重新计算
+     */
+    private static void changed(String key) {
+        if (RolePermissionsCache.isPermissionsByRoleKey(key)) RolePermissionsCache.invalidateAll();
+    }
+
+    private static void markRefreshed(String key,
+                                      long interval) {
+        if (interval > 0) freshKeys.put(key, TimeUtils.nowTime() + interval);
+    }
 }
@@ -1,5 +1,6 @@
 package cn.omisheep.authz.core.cache.library;
 
+import cn.omisheep.authz.core.AuthzProperties;
 import cn.omisheep.authz.core.cache.Cache;
 import cn.omisheep.authz.core.config.AuthzAppVersion;
 import cn.omisheep.authz.core.config.Constants;
@@ -10,6 +11,7 @@ import org.aspectj.lang.annotation.Aspect;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 import static cn.omisheep.authz.core.config.Constants.AUTHORIZE_CODE_PREFIX;
 
@@ -22,9 +24,13 @@ import static cn.omisheep.authz.core.config.Constants.AUTHORIZE_CODE_PREFIX;
 public class OpenAuthLibraryCache {
 
     private final Cache cache;
+    private final long  clientRefreshInterval;
 
-    public OpenAuthLibraryCache(Cache cache) {
-        this.cache = cache;
+    public OpenAuthLibraryCache(Cache cache,
+                                AuthzProperties properties) {
+        this.cache                 = cache;
+        this.clientRefreshInterval = L2RefreshCacheSupport.parseRefreshInterval(
+                properties.getCache().getClientRefreshTime());
     }
 
     @Around("execution(* cn.omisheep.authz.core.oauth.OpenAuthLibrary+.init())")
@@ -41,16 +47,13 @@ public class OpenAuthLibraryCache {
     @Around("execution(* cn.omisheep.authz.core.oauth.OpenAuthLibrary+.getClientById(String))")
     public Object aroundGetClientById(ProceedingJoinPoint joinPoint) throws Throwable {
         String key = Constants.CLINT_PREFIX.get() + joinPoint.getArgs()[0];
+        if (cache.notKey(key)) {
+            return L2RefreshCacheSupport.load(key, joinPoint, clientRefreshInterval, UnaryOperator.identity());
+        }
         try {
-            if (cache.notKey(key)) {
-                Object result = joinPoint.proceed();
-                cache.set(key, result);
-                return result;
-            } else {
-                return cache.get(key);
-            }
+            return cache.get(key);
         } finally {
-            L2RefreshCacheSupport.refresh(key, joinPoint);
+            L2RefreshCacheSupport.refresh(key, joinPoint, clientRefreshInterval);
         }
     }
 
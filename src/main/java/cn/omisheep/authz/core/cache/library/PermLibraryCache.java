@@ -1,5 +1,6 @@
 package cn.omisheep.authz.core.cache.library;
 
+import cn.omisheep.authz.core.AuthzProperties;
 import cn.omisheep.authz.core.cache.Cache;
 import cn.omisheep.authz.core.config.Constants;
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -15,10 +16,17 @@ import java.util.HashSet;
 @Aspect
 public class PermLibraryCache {
 
-    private final Cache                             cache;
+    private final Cache cache;
+    private final long  rolesByUserRefreshInterval;
+    private final long  permissionsByRoleRefreshInterval;
 
-    public PermLibraryCache(Cache cache) {
-        this.cache                             = cache;
+    public PermLibraryCache(Cache cache,
+                            AuthzProperties properties) {
+        this.cache                            = cache;
+        this.rolesByUserRefreshInterval       = L2RefreshCacheSupport.parseRefreshInterval(
+                properties.getCache().getRolesByUserRefreshTime());
+        this.permissionsByRoleRefreshInterval = L2RefreshCacheSupport.parseRefreshInterval(
+                properties.getCache().getPermissionsByRoleRefreshTime());
     }
 
     @Around("execution(* cn.omisheep.authz.core.auth.PermLibrary+.getRolesByUserId(..))")
@@ -28,7 +36,7 @@ public class PermLibraryCache {
             // 给予当前线程提示，目前为PermLibrary调用环境
             L2RefreshCacheSupport.isLibrary.set(Boolean.TRUE);
             if (args.length != 1) return joinPoint.proceed();
-            return handle(Constants.ROLES_BY_USER_KEY_PREFIX.get() + args[0], joinPoint);
+            return handle(Constants.ROLES_BY_USER_KEY_PREFIX.get() + args[0], joinPoint, rolesByUserRefreshInterval);
         } finally {
             L2RefreshCacheSupport.isLibrary.set(Boolean.FALSE);
         }
@@ -40,29 +48,25 @@ public class PermLibraryCache {
         try {
             // 给予当前线程提示，目前为PermLibrary调用环境
             L2RefreshCacheSupport.isLibrary.set(Boolean.TRUE);
-            return handle(Constants.PERMISSIONS_BY_ROLE_KEY_PREFIX.get() + joinPoint.getArgs()[0], joinPoint);
+            return handle(Constants.PERMISSIONS_BY_ROLE_KEY_PREFIX.get() + joinPoint.getArgs()[0], joinPoint,
+                          permissionsByRoleRefreshInterval);
         } finally {
             L2RefreshCacheSupport.isLibrary.set(Boolean.FALSE);
         }
     }
 
     private Object handle(String key,
-                          ProceedingJoinPoint joinPoint) throws Throwable {
+                          ProceedingJoinPoint joinPoint,
+                          long refreshInterval) throws Throwable {
         if (!cache.notKey(key)) {
             try {
                 return cache.get(key);
             } finally {
-                L2RefreshCacheSupport.refresh(key, joinPoint);
+                L2RefreshCacheSupport.refresh(key, joinPoint, refreshInterval);
             }
         } else {
-            Object result = joinPoint.proceed();
-            if (result == null) {
-                HashSet<String> set = new HashSet<>();
-                cache.set(key, set);
-                return set;
-            }
-            cache.set(key, result);
-            return result;
+            return L2RefreshCacheSupport.load(key, joinPoint, refreshInterval,
+                                              result -> result == null ? new HashSet<String>() : result);
         }
 
     }
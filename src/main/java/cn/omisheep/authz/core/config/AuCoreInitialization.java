@@ -7,6 +7,7 @@ import cn.omisheep.authz.core.auth.DefaultPermLibrary;
 import cn.omisheep.authz.core.auth.PermLibrary;
 import cn.omisheep.authz.core.auth.deviced.UserDevicesDict;
 import cn.omisheep.authz.core.auth.ipf.Httpd;
+import cn.omisheep.authz.core.auth.ipf.RoutePolicy;
 import cn.omisheep.authz.core.auth.rpd.PermissionDict;
 import cn.omisheep.authz.core.cache.Cache;
 import cn.omisheep.authz.core.codec.AuthzRSAManager;
@@ -93,6 +94,8 @@ public class AuCoreInitialization implements ApplicationContextAware {
         Httpd.init(properties, ctx, mapRet);
         LogUtils.debug("Httpd init success \n");
 
+        RoutePolicy.rebuild();
+
         // init rsa
         initRSA();
 
@@ -147,6 +147,9 @@ public class AuthzAppVersion {
 
         _values.put("USER_DEVICE_KEY_PREFIX", "authz:" + APP_NAME.get() + ":user:device:");
         _values.put("USER_REQUEST_KEY_PREFIX", "authz:" + APP_NAME.get() + ":user:request:");
+        _values.put("USER_DEVICE_INDEX_KEY_PREFIX", "authz:" + APP_NAME.get() + ":user:deviceIndex:");
+        _values.put("USER_INDEX_KEY", "authz:" + APP_NAME.get() + ":user:index");
+        _values.put("USER_INDEX_MIGRATION_KEY", "authz:" + APP_NAME.get() + ":user:indexMigration");
 
         _values.put("OAUTH_USER_DEVICE_KEY_PREFIX", "authz:" + APP_NAME.get() + ":oauth:user:device:");
 
@@ -161,6 +164,8 @@ public class AuthzAppVersion {
 
         _values.put("DASHBOARD_KEY_PREFIX", "authz:" + APP_NAME.get() + ":dashboard:");
 
+        _values.put("RATE_LIMIT_KEY_PREFIX", "authz:" + APP_NAME.get() + ":rateLimit:");
+
         return null;
     };
 
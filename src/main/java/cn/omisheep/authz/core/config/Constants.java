@@ -48,6 +48,13 @@ public interface Constants {
     Supplier<String> USER_REQUEST_KEY_PREFIX = () -> AuthzAppVersion.values.get(
             "USER_REQUEST_KEY_PREFIX");
 
+    Supplier<String> USER_DEVICE_INDEX_KEY_PREFIX = () -> AuthzAppVersion.values.get(
+            "USER_DEVICE_INDEX_KEY_PREFIX");
+    Supplier<String> USER_INDEX_KEY               = () -> AuthzAppVersion.values.get(
+            "USER_INDEX_KEY");
+    Supplier<String> USER_INDEX_MIGRATION_KEY     = () -> AuthzAppVersion.values.get(
+            "USER_INDEX_MIGRATION_KEY");
+
     Supplier<String> ROLES_BY_USER_KEY_PREFIX       = () -> AuthzAppVersion.values.get(
             "ROLES_BY_USER_KEY_PREFIX");
     Supplier<String> PERMISSIONS_BY_ROLE_KEY_PREFIX = () -> AuthzAppVersion.values.get(
@@ -61,6 +68,9 @@ public interface Constants {
     Supplier<String> DASHBOARD_KEY_PREFIX = () -> AuthzAppVersion.values.get(
             "DASHBOARD_KEY_PREFIX");
 
+    Supplier<String> RATE_LIMIT_KEY_PREFIX = () -> AuthzAppVersion.values.get(
+            "RATE_LIMIT_KEY_PREFIX");
+
     String USER_REQUEST   = "USER_REQUEST";
     String CONNECT_PREFIX = "authz:connect:";
 
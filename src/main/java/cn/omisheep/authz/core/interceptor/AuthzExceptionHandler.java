@@ -5,6 +5,7 @@ import cn.omisheep.authz.core.auth.ipf.HttpMeta;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -21,4 +22,17 @@ public interface AuthzExceptionHandler {
      * @throws Exception 抛出异常
      */
     boolean handle(HttpServletRequest request, HttpServletResponse response, HttpMeta httpMeta, ExceptionStatus firstExceptionStatus, List<Object> errorObjects) throws Exception;
+
+    /**
+     * 自定义处理器可以调用此方法，写出与默认处理器相同的、预先序列化的响应
+     *
+     * @param response        response
+     * @param exceptionStatus 异常状态
+     * @param alwaysOk        状态码是否永远为200
+     * @throws IOException 写出失败
+     * @since 1.2.14
+     */
+    default void writeResponse(HttpServletResponse response, ExceptionStatus exceptionStatus, boolean alwaysOk) throws IOException {
+        ExceptionResponses.write(response, exceptionStatus, alwaysOk);
+    }
 }
@@ -3,6 +3,7 @@ package cn.omisheep.authz.core.interceptor;
 import cn.omisheep.authz.core.AuthzException;
 import cn.omisheep.authz.core.ExceptionStatus;
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
+import cn.omisheep.authz.core.auth.ipf.RoutePolicy;
 import cn.omisheep.authz.core.auth.rpd.PermissionDict;
 import cn.omisheep.authz.core.slot.Error;
 import cn.omisheep.authz.core.slot.Order;
@@ -17,7 +18,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Collection;
 import java.util.LinkedList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static cn.omisheep.authz.core.config.Constants.HTTP_META;
 
@@ -31,8 +33,15 @@ import static cn.omisheep.authz.core.config.Constants.HTTP_META;
 @SuppressWarnings("all")
 public class AuthzSlotCoreInterceptor implements HandlerInterceptor {
 
-    private final AuthzExceptionHandler authzExceptionHandler;
-    private final LinkedList<Slot>      slots = new LinkedList<>();
+    private static final ThreadLocal<ChainError> ERROR = ThreadLocal.withInitial(ChainError::new);
+
+    private final AuthzExceptionHandler     authzExceptionHandler;
+    private final LinkedList<Slot>          slots = new LinkedList<>();
+    /**
+     * 路由策略 -> 该路由的执行计划，只包含{@link Slot#support(RoutePolicy)}的slot，策略重建后清空
+     */
+    private final Map<RoutePolicy, Slot[]>  plans = new ConcurrentHashMap<>();
+    private volatile long                   generation = -1;
 
     public AuthzSlotCoreInterceptor(AuthzExceptionHandler authzExceptionHandler,
                                     Collection<Slot> slots) {
@@ -56,9 +65,14 @@ public class AuthzSlotCoreInterceptor implements HandlerInterceptor {
             return true;
         }
         HandlerMethod handlerMethod = (HandlerMethod) handler;
-        httpMeta.setController(PermissionDict.getControllerBeanName(handlerMethod.getBeanType().getTypeName()));
+        String        controller    = PermissionDict.getControllerBeanName(handlerMethod.getBeanType().getTypeName());
+        httpMeta.setController(controller);
+        httpMeta.setRoutePolicy(RoutePolicy.withController(httpMeta.getRoutePolicy(), controller));
         LinkedList<ExceptionStatus> list = httpMeta.getExceptionStatusList();
-        if (!list.isEmpty()) {
+        // 未声明请求方法的映射在filter中匹配不到api，但controller上有限制时仍需鉴权
+        boolean mismatchedOnly = list.size() == 1 && list.getFirst() == ExceptionStatus.MISMATCHED_URL
+                && httpMeta.getRoutePolicy() != RoutePolicy.NONE;
+        if (!list.isEmpty() && !mismatchedOnly) {
             httpMeta.exportLog();
             return authzExceptionHandler.handle(request, response, httpMeta, list.getFirst(),
                                                 httpMeta.getExceptionObjectList());
@@ -66,33 +80,18 @@ public class AuthzSlotCoreInterceptor implements HandlerInterceptor {
         httpMeta.clearError();
 
         try {
-            AtomicBoolean               next                = new AtomicBoolean(true);
             LinkedList<ExceptionStatus> exceptionStatusList = httpMeta.getExceptionStatusList();
             LinkedList<Object>          exceptionObjectList = httpMeta.getExceptionObjectList();
-            for (Slot slot : slots) {
-                if (next.get() || slot.must()) {
-                    slot.chain(httpMeta, handlerMethod, new Error() {
-                        @Override
-                        public void error(Object... error) {
-                            next.set(false);
-                            if (error == null || error.length == 0) return;
-                            for (Object o : error) {
-                                if (o instanceof ExceptionStatus) {
-                                    exceptionStatusList.offer((ExceptionStatus) o);
-                                } else if (o instanceof AuthzException) {
-                                    exceptionStatusList.offer(((AuthzException) o).getExceptionStatus());
-                                } else {
-                                    exceptionObjectList.offer(error);
-                                }
-                            }
-                        }
-
-                        @Override
-                        public void stop() {
-                            next.set(false);
-                        }
-                    });
+            ChainError                  error               = ERROR.get().reset(httpMeta);
+            try {
+                for (Slot slot : plan(httpMeta.getRoutePolicy())) {
+                    if (error.next || slot.must()) {
+                        slot.chain(httpMeta, handlerMethod, error);
+                    }
                 }
+            } finally {
+                // slot抛出异常时同样释放，线程复用的ChainError不能继续持有本次请求的HttpMeta
+                error.reset(null);
             }
             if (!exceptionStatusList.isEmpty() || !exceptionObjectList.isEmpty()) {
                 if (!exceptionStatusList.isEmpty()) {
@@ -113,4 +112,53 @@ public class AuthzSlotCoreInterceptor implements HandlerInterceptor {
         }
     }
 
+    private Slot[] plan(RoutePolicy routePolicy) {
+        long g = RoutePolicy.generation();
+        if (g != generation) {
+            plans.clear();
+            generation = g;
+        }
+        Slot[] plan = plans.get(routePolicy);
+        if (plan != null) return plan;
+        return plans.computeIfAbsent(routePolicy, r -> slots.stream()
+                .filter(slot -> slot.must() || slot.support(r))
+                .toArray(Slot[]::new));
+    }
+
+    /**
+     * 每个线程复用同一个实例，请求开始时重置
+     */
+    private static final class ChainError implements Error {
+        private boolean                     next;
+        private LinkedList<ExceptionStatus> exceptionStatusList;
+        private LinkedList<Object>          exceptionObjectList;
+
+        private ChainError reset(HttpMeta httpMeta) {
+            this.next                = true;
+            this.exceptionStatusList = httpMeta == null ? null : httpMeta.getExceptionStatusList();
+            this.exceptionObjectList = httpMeta == null ? null : httpMeta.getExceptionObjectList();
+            return this;
+        }
+
+        @Override
+        public void error(Object... error) {
+            next = false;
+            if (error == null || error.length == 0) return;
+            for (Object o : error) {
+                if (o instanceof ExceptionStatus) {
+                    exceptionStatusList.offer((ExceptionStatus) o);
+                } else if (o instanceof AuthzException) {
+                    exceptionStatusList.offer(((AuthzException) o).getExceptionStatus());
+                } else {
+                    exceptionObjectList.offer(error);
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            next = false;
+        }
+    }
+
 }
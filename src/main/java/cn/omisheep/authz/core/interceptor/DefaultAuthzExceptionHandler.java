@@ -4,7 +4,6 @@ import cn.omisheep.authz.core.AuthzProperties;
 import cn.omisheep.authz.core.ExceptionStatus;
 import cn.omisheep.authz.core.LogLevel;
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
-import cn.omisheep.authz.core.util.HttpUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,11 +33,7 @@ public class DefaultAuthzExceptionHandler implements AuthzExceptionHandler {
             return true;
         }
 
-        if (config.isAlwaysOk()) {
-            HttpUtils.returnResponse(200, exceptionStatus.data());
-        } else {
-            HttpUtils.returnResponse(exceptionStatus.getHttpStatus(), exceptionStatus.data());
-        }
+        ExceptionResponses.write(response, exceptionStatus, config.isAlwaysOk());
 
         return false;
     }
@@ -4,15 +4,13 @@ import cn.omisheep.authz.core.auth.ipf.HttpMeta;
 import cn.omisheep.authz.core.auth.rpd.DataPermRolesMeta;
 import cn.omisheep.authz.core.auth.rpd.FieldDataPermRolesMeta;
 import cn.omisheep.authz.core.util.ArgsParser;
+import cn.omisheep.authz.core.util.FieldSetters;
+import cn.omisheep.authz.core.util.LogUtils;
 import cn.omisheep.commons.util.CollectionUtils;
 import net.sf.jsqlparser.JSQLParserException;
-import net.sf.jsqlparser.expression.Expression;
-import net.sf.jsqlparser.parser.CCJSqlParserUtil;
-import net.sf.jsqlparser.statement.select.PlainSelect;
-import net.sf.jsqlparser.statement.select.Select;
 
-import java.lang.reflect.Field;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * @author zhouxinchen[1269670415@qq.com]
@@ -31,34 +29,19 @@ public class DefaultDataSecurityInterceptor implements DataFinderSecurityInterce
         Set<String> rolesByUserId     = httpMeta.getRoles();
         Set<String> permissionsByRole = httpMeta.getPermissions();
 
-        Iterator<String> iterator = dataPermRolesMetaList
+        List<ArgsParser.Template> conditions = dataPermRolesMetaList
                 .stream()
                 .filter(dataPermMeta -> (dataPermMeta.non() && httpMeta.hasToken())  // 空表示只需要验证登录
                         || CollectionUtils.containsSub(dataPermMeta.getRequireRoles(), rolesByUserId)
                         || CollectionUtils.containsSub(dataPermMeta.getRequirePermissions(), permissionsByRole)
                         || !CollectionUtils.containsSub(dataPermMeta.getExcludeRoles(), rolesByUserId)
                         || !CollectionUtils.containsSub(dataPermMeta.getExcludePermissions(), permissionsByRole))
-                .map(ArgsParser::parse)
-                .iterator();
+                .map(DataPermRolesMeta::_getTemplate)
+                .collect(Collectors.toList());
 
-        if (!iterator.hasNext()) return sql;
+        if (conditions.isEmpty()) return sql;
 
-        Select      select     = (Select) CCJSqlParserUtil.parse(sql);
-        PlainSelect selectBody = (PlainSelect) select.getSelectBody();
-        Expression  where      = selectBody.getWhere();
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(" ( ");
-        while (iterator.hasNext()) {
-            sb.append(iterator.next());
-            if (iterator.hasNext()) {sb.append(" OR ");} else {
-                if (where != null) {sb.append(" ) AND ").append(where);} else sb.append(" ) ");
-            }
-        }
-
-        Expression securityWhere = CCJSqlParserUtil.parseCondExpression(sb.toString());
-
-        return selectBody.withWhere(securityWhere).toString();
+        return SqlRewriteCache.rewrite(sql, conditions);
     }
 
     @Override
@@ -85,21 +68,11 @@ public class DefaultDataSecurityInterceptor implements DataFinderSecurityInterce
                     .map(Map.Entry::getKey)
                     .forEach(deleted::add); //任意一个没有满足则从字段中删除
 
-            if (obj instanceof Collection) {
-                ((Collection) obj).forEach(o -> {
-                    for (String d : deleted) {
-                        try {
-                            Field declaredField = resultType.getDeclaredField(d);
-                            declaredField.setAccessible(true);
-                            declaredField.set(o, null);
-                        } catch (Exception e) {
-                        }
-                    }
-                });
-            }
+            if (!deleted.isEmpty()) FieldSetters.nullify(resultType, deleted, obj);
 
             return obj;
         } catch (Exception e) {
+            LogUtils.error(e);
             return obj;
         }
     }
@@ -0,0 +1,73 @@
+package cn.omisheep.authz.core.interceptor;
+
+import cn.omisheep.authz.core.ExceptionStatus;
+import com.alibaba.fastjson.JSONObject;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 每个{@link ExceptionStatus}的响应体在类加载时序列化一次，拒绝请求时直接写出字节，不再每次构造结果对象并序列化。
+ * <p>
+ * 自定义的{@link AuthzExceptionHandler}同样可以调用{@link #write(HttpServletResponse, ExceptionStatus, boolean)}，
+ * 响应与默认处理器一致。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public final class ExceptionResponses {
+
+    public static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    private static final byte[][] bodies;
+
+    static {
+        ExceptionStatus[] values = ExceptionStatus.values();
+        bodies = new byte[values.length][];
+        for (ExceptionStatus status : values) {
+            bodies[status.ordinal()] = JSONObject.toJSONString(status.data()).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private ExceptionResponses() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param exceptionStatus 异常状态
+     * @return 序列化后的响应体，不可修改
+     */
+    public static byte[] body(ExceptionStatus exceptionStatus) {
+        return bodies[exceptionStatus.ordinal()];
+    }
+
+    /**
+     * @param exceptionStatus 异常状态
+     * @param alwaysOk        {@link cn.omisheep.authz.core.AuthzProperties.ResponseConfig#isAlwaysOk()}
+     * @return 响应状态码
+     */
+    public static int status(ExceptionStatus exceptionStatus,
+                             boolean alwaysOk) {
+        return alwaysOk ? 200 : exceptionStatus.getHttpStatus().value();
+    }
+
+    /**
+     * 写出状态码、Content-Type、Content-Length以及预先序列化的响应体
+     *
+     * @param response        response
+     * @param exceptionStatus 异常状态
+     * @param alwaysOk        状态码是否永远为200
+     * @throws IOException 写出失败
+     */
+    public static void write(HttpServletResponse response,
+                             ExceptionStatus exceptionStatus,
+                             boolean alwaysOk) throws IOException {
+        byte[] body = bodies[exceptionStatus.ordinal()];
+        response.setStatus(status(exceptionStatus, alwaysOk));
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+}
@@ -0,0 +1,231 @@
+package cn.omisheep.authz.core.interceptor;
+
+import cn.omisheep.authz.core.util.ArgsParser;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 数据权限sql改写的缓存，避免每次查询都重复解析sql以及拼接后的条件。
+ * <p>
+ * templates：原始sql -> 解析后的select以及原where条件；
+ * rewritten：原始sql + 本次生效的条件模板 -> 改写后的sql骨架。
+ * 骨架中参数以 {@link ArgsParser.Template#marker(int)} 占位，查询时再填入当前用户的参数值，
+ * 所以同一条sql、同一组规则的缓存由所有用户共享，不会随用户数增长。
+ * 条件格式错误或参数值为空时不走缓存，按原方式渲染后解析。
+ * 数据权限修改后由 {@link cn.omisheep.authz.core.auth.rpd.PermissionDict#modifyData} 清空。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public class SqlRewriteCache {
+
+    private static final long TEMPLATE_MAXIMUM_SIZE  = 1024;
+    private static final long REWRITTEN_MAXIMUM_SIZE = 4096;
+
+    private static final Pattern MARKER = Pattern.compile("__authz_arg_(\\d+)__");
+
+    private static final Cache<String, SelectTemplate> templates = Caffeine.newBuilder()
+            .maximumSize(TEMPLATE_MAXIMUM_SIZE)
+            .recordStats()
+            .build();
+
+    private static final Cache<RewriteKey, Skeleton> rewritten = Caffeine.newBuilder()
+            .maximumSize(REWRITTEN_MAXIMUM_SIZE)
+            .recordStats()
+            .build();
+
+    private SqlRewriteCache() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param sql        原始sql
+     * @param conditions 生效的数据权限条件模板，以OR连接
+     * @return 改写后的sql
+     * @throws JSQLParserException sql或条件解析失败
+     */
+    public static String rewrite(String sql,
+                                 List<ArgsParser.Template> conditions) throws JSQLParserException {
+        List<String> args = new ArrayList<>();
+        for (ArgsParser.Template condition : conditions) {
+            if (condition.isMalformed()) return rewriteRendered(sql, render(conditions));
+            for (String arg : condition.renderArgs()) {
+                if (arg == null || arg.isEmpty()) return rewriteRendered(sql, render(conditions));
+                args.add(arg);
+            }
+        }
+
+        RewriteKey key      = new RewriteKey(sql, conditions);
+        Skeleton   skeleton = rewritten.getIfPresent(key);
+        if (skeleton == null) {
+            List<String> skeletons = new ArrayList<>(conditions.size());
+            int          first     = 0;
+            for (ArgsParser.Template condition : conditions) {
+                skeletons.add(condition.skeleton(first));
+                first += condition.arity();
+            }
+            skeleton = new Skeleton(rewriteRendered(sql, skeletons));
+            rewritten.put(key, skeleton);
+        }
+        return skeleton.bind(args);
+    }
+
+    private static List<String> render(List<ArgsParser.Template> conditions) {
+        return conditions.stream().map(ArgsParser.Template::render).collect(Collectors.toList());
+    }
+
+    private static String rewriteRendered(String sql,
+                                          List<String> conditions) throws JSQLParserException {
+        SelectTemplate template = templates.getIfPresent(sql);
+        if (template == null) {
+            template = new SelectTemplate((Select) CCJSqlParserUtil.parse(sql));
+            templates.put(sql, template);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(" ( ");
+        for (int i = 0; i < conditions.size(); i++) {
+            sb.append(conditions.get(i));
+            if (i < conditions.size() - 1) {sb.append(" OR ");} else {
+                if (template.where != null) {sb.append(" ) AND ").append(template.where);} else sb.append(" ) ");
+            }
+        }
+
+        return template.render(CCJSqlParserUtil.parseCondExpression(sb.toString()));
+    }
+
+    /**
+     * 解析后的select与数据权限无关，只需清空改写结果
+     */
+    public static void invalidateAll() {
+        rewritten.invalidateAll();
+    }
+
+    /**
+     * @return templates/rewritten -> 命中数、未命中数、淘汰数、当前大小
+     */
+    public static Map<String, Map<String, Long>> getMetrics() {
+        Map<String, Map<String, Long>> metrics = new HashMap<>();
+        metrics.put("templates", metrics(templates));
+        metrics.put("rewritten", metrics(rewritten));
+        return metrics;
+    }
+
+    private static Map<String, Long> metrics(Cache<?, ?> cache) {
+        CacheStats        stats = cache.stats();
+        Map<String, Long> m     = new HashMap<>();
+        m.put("hitCount", stats.hitCount());
+        m.put("missCount", stats.missCount());
+        m.put("evictionCount", stats.evictionCount());
+        m.put("size", cache.estimatedSize());
+        return m;
+    }
+
+    private static class SelectTemplate {
+        private final PlainSelect selectBody;
+        private final Expression  where;
+
+        private SelectTemplate(Select select) {
+            this.selectBody = (PlainSelect) select.getSelectBody();
+            this.where      = selectBody.getWhere();
+        }
+
+        /**
+         * selectBody共享，替换where输出后再还原
+         */
+        private synchronized String render(Expression securityWhere) {
+            try {
+                return selectBody.withWhere(securityWhere).toString();
+            } finally {
+                selectBody.setWhere(where);
+            }
+        }
+    }
+
+    /**
+     * 改写后的sql按标记切分，bind时依次填入参数值。
+     * 标记被括号直接包裹且参数值为数组时（如 in (#{ids})），去掉参数值外层的括号，与渲染时的处理一致
+     */
+    private static class Skeleton {
+        private final String[]  segments;
+        private final int[]     args;
+        private final boolean[] wrapped;
+
+        private Skeleton(String sql) {
+            List<String>  segments = new ArrayList<>();
+            List<Integer> args     = new ArrayList<>();
+            Matcher       matcher  = MARKER.matcher(sql);
+            int           last     = 0;
+            while (matcher.find()) {
+                segments.add(sql.substring(last, matcher.start()));
+                args.add(Integer.parseInt(matcher.group(1)));
+                last = matcher.end();
+            }
+            segments.add(sql.substring(last));
+
+            this.segments = segments.toArray(new String[0]);
+            this.args     = new int[args.size()];
+            this.wrapped  = new boolean[args.size()];
+            for (int i = 0; i < this.args.length; i++) {
+                this.args[i]    = args.get(i);
+                this.wrapped[i] = this.segments[i].trim().endsWith("(") && this.segments[i + 1].trim().startsWith(")");
+            }
+        }
+
+        private String bind(List<String> values) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < args.length; i++) {
+                String value = values.get(args[i]);
+                if (wrapped[i] && value.startsWith("(") && value.endsWith(")")) {
+                    value = value.substring(1, value.length() - 1).trim();
+                }
+                sb.append(segments[i]).append(value);
+            }
+            return sb.append(segments[args.length]).toString();
+        }
+    }
+
+    /**
+     * 模板在规则修改时重新编译，按实例比较即可
+     */
+    private static class RewriteKey {
+        private final String                    sql;
+        private final List<ArgsParser.Template> conditions;
+        private final int                       hash;
+
+        private RewriteKey(String sql,
+                           List<ArgsParser.Template> conditions) {
+            this.sql        = sql;
+            this.conditions = conditions;
+            this.hash       = 31 * sql.hashCode() + conditions.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RewriteKey)) return false;
+            RewriteKey that = (RewriteKey) o;
+            return hash == that.hash && sql.equals(that.sql) && conditions.equals(that.conditions);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -69,6 +69,9 @@ public class AuthzModifier {
         private long                minInterval;
         private List<String>        associatedPatterns = new ArrayList<>();
         private RateLimit.CheckType checkType;
+        private long                maximumPoolSize    = RateLimit.DEFAULT_MAXIMUM_POOL_SIZE;
+        private RateLimit.Backend   backend            = RateLimit.Backend.DEFAULT;
+        private RateLimit.Algorithm algorithm          = RateLimit.Algorithm.SLIDING_WINDOW;
     }
 
     @Data
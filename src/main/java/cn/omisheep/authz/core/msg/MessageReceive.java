@@ -3,6 +3,7 @@ package cn.omisheep.authz.core.msg;
 import cn.omisheep.authz.AuthzAutoConfiguration;
 import cn.omisheep.authz.core.config.AuthzAppVersion;
 import cn.omisheep.authz.core.auth.ipf.Httpd;
+import cn.omisheep.authz.core.auth.rpd.RolePermissionsCache;
 import cn.omisheep.authz.core.cache.Cache;
 import cn.omisheep.authz.core.util.LogUtils;
 import cn.omisheep.commons.util.TimeUtils;
@@ -28,6 +29,7 @@ public class MessageReceive {
             if (!CacheMessage.ignore(message)) {
                 LogUtils.debug("MessageReceive time: {} message: {}", TimeUtils.nowTime(), message);
                 cache.receive(message);
+                RolePermissionsCache.receive(message);
             }
         } else if (oo instanceof RequestMessage) {
             RequestMessage message = (RequestMessage) oo;
@@ -35,6 +37,12 @@ public class MessageReceive {
                 LogUtils.debug("RequestMessage time: {} message: {}", TimeUtils.nowTime(), message);
                 Httpd.receive(message);
             }
+        } else if (oo instanceof RequestBatchMessage) {
+            RequestBatchMessage message = (RequestBatchMessage) oo;
+            if (!RequestBatchMessage.ignore(message)) {
+                LogUtils.debug("RequestBatchMessage time: {} size: {}", TimeUtils.nowTime(), message.size());
+                Httpd.receive(message);
+            }
         } else if (oo instanceof VersionMessage) {
             VersionMessage message = (VersionMessage) oo;
             if (!VersionMessage.ignore(message)) {
@@ -0,0 +1,52 @@
+package cn.omisheep.authz.core.msg;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 多个{@link RequestMessage}合并后的消息，字段按列存储，避免每条请求重复携带id、context以及类型信息
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+@Data
+public class RequestBatchMessage implements Message {
+
+    private String   id      = Message.uuid;
+    private String   context = RequestMessage.CHANNEL;
+    private String[] methods;
+    private String[] apis;
+    private String[] ips;
+    private Object[] userIds;
+    private long[]   nows;
+
+    public RequestBatchMessage() {
+    }
+
+    public RequestBatchMessage(List<RequestMessage> messages) {
+        int size = messages.size();
+        methods = new String[size];
+        apis    = new String[size];
+        ips     = new String[size];
+        userIds = new Object[size];
+        nows    = new long[size];
+        for (int i = 0; i < size; i++) {
+            RequestMessage message = messages.get(i);
+            methods[i] = message.getMethod();
+            apis[i]    = message.getApi();
+            ips[i]     = message.getIp();
+            userIds[i] = message.getUserId();
+            nows[i]    = message.getNow();
+        }
+    }
+
+    public int size() {
+        return nows == null ? 0 : nows.length;
+    }
+
+    public static boolean ignore(RequestBatchMessage message) {
+        return message == null || Message.uuid.equals(message.getId()) || !RequestMessage.CHANNEL.equals(
+                message.context);
+    }
+}
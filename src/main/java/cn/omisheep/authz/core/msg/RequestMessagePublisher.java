@@ -0,0 +1,132 @@
+package cn.omisheep.authz.core.msg;
+
+import cn.omisheep.authz.core.AuthzProperties;
+import cn.omisheep.authz.core.util.RedisUtils;
+import cn.omisheep.commons.util.Async;
+import cn.omisheep.commons.util.TaskBuilder;
+import cn.omisheep.commons.util.TimeUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并发送{@link RequestMessage}。
+ * <p>
+ * 请求只进入队列，每隔interval或者积累到batchSize条时合并成一条{@link RequestBatchMessage}发送，
+ * 把每次请求一次任务提交、一次序列化、一次redis往返降低为每批一次。
+ * interval小于等于0时不合并，与之前一样逐条发送。
+ * <p>
+ * 队列最多积压 batchSize * {@link #MAX_PENDING_BATCHES} 条，redis变慢或不可用时超出的请求直接丢弃并计数，
+ * 丢弃只影响其他实例的限流计数，不影响本实例。
+ * <p>
+ * 仓库中没有基准测试的工程，所以用计数代替：{@link #metrics()}记录进入队列的请求数、实际的redis publish次数以及丢弃数，
+ * 压测时 publishes / messages 即为每次请求的redis操作数，可通过 /metrics/request-sync 查看。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public class RequestMessagePublisher {
+
+    private static final int MAX_PENDING_BATCHES = 64;
+
+    private static final LongAdder messages  = new LongAdder();
+    private static final LongAdder publishes = new LongAdder();
+    private static final LongAdder dropped   = new LongAdder();
+
+    private static RequestMessagePublisher shared;
+
+    private final ConcurrentLinkedQueue<RequestMessage> queue    = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger                         size     = new AtomicInteger();
+    private final AtomicBoolean                         flushing = new AtomicBoolean();
+    private final long                                  interval;
+    private final int                                   batchSize;
+    private final int                                   maxPending;
+
+    public RequestMessagePublisher(long interval,
+                                   int batchSize) {
+        this.interval   = interval;
+        this.batchSize  = Math.max(batchSize, 1);
+        this.maxPending = (int) Math.min((long) this.batchSize * MAX_PENDING_BATCHES, Integer.MAX_VALUE);
+        if (interval > 0) TaskBuilder.schedule(this::flush, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * RateLimitSlot与AuthzHttpFilter共用一个实例，同一批次中的请求一起发送
+     *
+     * @param cache 缓存配置
+     * @return 未开启redis时返回null
+     */
+    public static synchronized RequestMessagePublisher of(AuthzProperties.CacheConfig cache) {
+        if (!cache.isEnableRedis()) return null;
+        if (shared == null) {
+            shared = new RequestMessagePublisher(TimeUtils.parseTimeValue(cache.getRequestSyncInterval()),
+                                                 cache.getRequestSyncBatchSize());
+        }
+        return shared;
+    }
+
+    public void publish(RequestMessage message) {
+        messages.increment();
+        if (interval <= 0) {
+            publishes.increment();
+            Async.run(() -> RedisUtils.publish(RequestMessage.CHANNEL, message));
+            return;
+        }
+        int pending = size.incrementAndGet();
+        if (pending > maxPending) {
+            size.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.offer(message);
+        // 先占住flushing再提交，避免并发的publish重复提交flush任务
+        if (pending >= batchSize && flushing.compareAndSet(false, true)) Async.run(this::drain);
+    }
+
+    public void flush() {
+        if (flushing.compareAndSet(false, true)) drain();
+    }
+
+    /**
+     * 调用前须已将flushing置为true
+     */
+    private void drain() {
+        try {
+            while (!queue.isEmpty()) {
+                List<RequestMessage> batch = new ArrayList<>(Math.min(size.get(), batchSize));
+                RequestMessage       message;
+                while (batch.size() < batchSize && (message = queue.poll()) != null) {
+                    batch.add(message);
+                }
+                size.addAndGet(-batch.size());
+                if (!batch.isEmpty()) publishes.increment();
+                if (batch.size() == 1) {
+                    RedisUtils.publish(RequestMessage.CHANNEL, batch.get(0));
+                } else if (!batch.isEmpty()) {
+                    RedisUtils.publish(RequestMessage.CHANNEL, new RequestBatchMessage(batch));
+                }
+            }
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    /**
+     * @return messages: 需要同步的请求数，publishes: redis publish次数，dropped: 队列已满被丢弃的请求数
+     */
+    public static Map<String, Long> metrics() {
+        Map<String, Long> m = new HashMap<>();
+        m.put("messages", messages.sum());
+        m.put("publishes", publishes.sum());
+        m.put("dropped", dropped.sum());
+        return m;
+    }
+
+}
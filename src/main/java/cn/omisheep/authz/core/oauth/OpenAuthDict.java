@@ -51,7 +51,18 @@ public class OpenAuthDict {
                                  Set<String> scope) {
         Map<String, OAuthInfo> p = src.get(path);
         if (p == null) return false;
-        OAuthInfo authInfo = p.get(method);
+        return target(p.get(method), type, scope);
+    }
+
+    /**
+     * @param authInfo 路由的oauth配置，见{@link cn.omisheep.authz.core.auth.ipf.RoutePolicy#getOauthInfo()}
+     * @param type     token的授权类型
+     * @param scope    token的scope
+     * @return 是否允许访问
+     */
+    public static boolean target(@Nullable OAuthInfo authInfo,
+                                 GrantType type,
+                                 Set<String> scope) {
         if (authInfo == null || authInfo.non()) return false;
         if (!authInfo.type.contains(type)) return false;
         return scope.containsAll(authInfo.scope);
@@ -3,6 +3,8 @@ package cn.omisheep.authz.core.slot;
 import cn.omisheep.authz.core.ExceptionStatus;
 import cn.omisheep.authz.core.auth.deviced.UserDevicesDict;
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
+import cn.omisheep.authz.core.auth.ipf.RoutePolicy;
+import cn.omisheep.authz.core.tk.TokenHelper;
 import org.springframework.web.method.HandlerMethod;
 
 import static cn.omisheep.authz.core.auth.deviced.UserDevicesDict.UserStatus.*;
@@ -22,6 +24,11 @@ public class DeviceSlot implements Slot {
         this.userDevicesDict = userDevicesDict;
     }
 
+    @Override
+    public boolean support(RoutePolicy routePolicy) {
+        return routePolicy.isRequireLogin();
+    }
+
     @Override
     public void chain(HttpMeta httpMeta,
                       HandlerMethod handler,
@@ -51,12 +58,14 @@ public class DeviceSlot implements Slot {
                 logs("Require Login", httpMeta);
                 error.error(ExceptionStatus.REQUIRE_LOGIN);
                 httpMeta.setUserStatus(REQUIRE_LOGIN);
+                TokenHelper.evictAccessToken(httpMeta.getToken());
                 return;
             case LOGIN_EXCEPTION:
                 // 在别处登录
                 logs("forbid : may have logged in elsewhere", httpMeta);
                 error.error(ExceptionStatus.LOGIN_EXCEPTION);
                 httpMeta.setUserStatus(LOGIN_EXCEPTION);
+                TokenHelper.evictAccessToken(httpMeta.getToken());
                 return;
         }
         httpMeta.setUserStatus(SUCCESS);
@@ -2,14 +2,11 @@ package cn.omisheep.authz.core.slot;
 
 import cn.omisheep.authz.core.ExceptionStatus;
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
+import cn.omisheep.authz.core.auth.ipf.RoutePolicy;
 import cn.omisheep.authz.core.auth.rpd.PermissionDict;
-import cn.omisheep.authz.support.util.IPAddress;
-import cn.omisheep.authz.support.util.IPRange;
-import cn.omisheep.authz.support.util.IPRangeMeta;
+import cn.omisheep.authz.support.util.IPRangeTrie;
 import org.springframework.web.method.HandlerMethod;
 
-import java.util.Set;
-
 /**
  * @author zhouxinchen[1269670415@qq.com]
  * @since 1.0.0
@@ -18,6 +15,12 @@ import java.util.Set;
 @SuppressWarnings("all")
 public class IPRangeSlot implements Slot {
 
+    @Override
+    public boolean support(RoutePolicy routePolicy) {
+        return routePolicy.getIpRangeMeta() != null || !PermissionDict.getGlobalAllowTrie().isEmpty()
+                || !PermissionDict.getGlobalDenyTrie().isEmpty();
+    }
+
     @Override
     public void chain(HttpMeta httpMeta,
                       HandlerMethod handler,
@@ -29,14 +32,15 @@ public class IPRangeSlot implements Slot {
                     return;
                 }
             }
-            if (!isPermittedRequest(httpMeta.getIp(), PermissionDict.getGlobalAllow(),
-                                    PermissionDict.getGlobalDeny())) {
+            if (!IPRangeTrie.permit(httpMeta.getIp(), PermissionDict.getGlobalAllowTrie(),
+                                    PermissionDict.getGlobalDenyTrie())) {
                 error.error(ExceptionStatus.PERM_EXCEPTION);
                 return;
             }
-            IPRangeMeta ipRangeMeta = PermissionDict.getIPRange().get(httpMeta.getApi()).get(httpMeta.getMethod());
-            if (ipRangeMeta != null && !isPermittedRequest(httpMeta.getIp(), ipRangeMeta.getAllow(),
-                                                           ipRangeMeta.getDeny())) {
+            RoutePolicy routePolicy = httpMeta.getRoutePolicy();
+            if (routePolicy.getIpRangeMeta() != null && !IPRangeTrie.permit(httpMeta.getIp(),
+                                                                            routePolicy.getIpAllow(),
+                                                                            routePolicy.getIpDeny())) {
                 error.error(ExceptionStatus.PERM_EXCEPTION);
                 return;
             }
@@ -46,33 +50,4 @@ public class IPRangeSlot implements Slot {
         }
     }
 
-    public boolean isPermittedRequest(String remoteAddress,
-                                      Set<IPRange> allowList,
-                                      Set<IPRange> denyList) {
-        boolean ipV6 = remoteAddress.indexOf(':') != -1;
-
-        if (ipV6) {
-            return (denyList.size() == 0 && allowList.size() == 0);
-        }
-
-        IPAddress ipAddress = new IPAddress(remoteAddress);
-
-        for (IPRange range : denyList) {
-            if (range.isIPAddressInRange(ipAddress)) {
-                return false;
-            }
-        }
-
-        if (allowList.size() > 0) {
-            for (IPRange range : allowList) {
-                if (range.isIPAddressInRange(ipAddress)) {
-                    return true;
-                }
-            }
-
-            return false;
-        }
-
-        return true;
-    }
 }
@@ -22,11 +22,9 @@ public class OAuthSlot implements Slot {
         if (!httpMeta.hasToken()) return;
         String clientId = httpMeta.getToken().getClientId();
         if (clientId == null) return;
-        String      path   = httpMeta.getApi();
-        String      method = httpMeta.getMethod();
-        GrantType   type   = httpMeta.getToken().getGrantType();
-        Set<String> scope  = httpMeta.getScope();
-        if (!OpenAuthDict.target(path, method, type, scope)) {
+        GrantType   type  = httpMeta.getToken().getGrantType();
+        Set<String> scope = httpMeta.getScope();
+        if (!OpenAuthDict.target(httpMeta.getRoutePolicy().getOauthInfo(), type, scope)) {
             error.error(ExceptionStatus.SCOPE_EXCEPTION_OR_TYPE_ERROR);
         }
     }
@@ -3,9 +3,9 @@ package cn.omisheep.authz.core.slot;
 import cn.omisheep.authz.core.ExceptionStatus;
 import cn.omisheep.authz.core.auth.PermLibrary;
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
+import cn.omisheep.authz.core.auth.ipf.RoutePolicy;
 import cn.omisheep.authz.core.auth.rpd.ParamMetadata;
 import cn.omisheep.authz.core.auth.rpd.ParamPermRolesMeta;
-import cn.omisheep.authz.core.auth.rpd.PermissionDict;
 import cn.omisheep.authz.core.util.ValueMatcher;
 import cn.omisheep.commons.util.CollectionUtils;
 import org.springframework.core.MethodParameter;
@@ -15,10 +15,12 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.servlet.HandlerMapping;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static cn.omisheep.authz.core.util.LogUtils.logs;
 
@@ -33,51 +35,51 @@ public class ParameterPermSlot implements Slot {
 
     private final PermLibrary permLibrary;
 
+    /**
+     * handler方法 -> 需要取值的参数，参数上的注解不会变化，所以每个方法只解析一次
+     */
+    private final Map<Method, Binding[]> bindings = new ConcurrentHashMap<>();
+
     public ParameterPermSlot(PermLibrary permLibrary) {
         this.permLibrary = permLibrary;
     }
 
+    @Override
+    public boolean support(RoutePolicy routePolicy) {
+        return routePolicy.isHasParamAuth();
+    }
+
     @Override
     public void chain(HttpMeta httpMeta,
                       HandlerMethod handler,
                       Error error) {
         if (!httpMeta.isHasParamAuth()) return;
-        Map<String, ParamMetadata> paramPeMap = PermissionDict.getParamPermission()
-                .get(httpMeta.getApi())
-                .get(httpMeta.getMethod());
-
-        Set<String> roles       = null;
-        Set<String> permissions = null;
+        Map<String, ParamMetadata> paramPeMap = httpMeta.getRoutePolicy().getParamMetadata();
 
-        for (MethodParameter parameter : handler.getMethodParameters()) {
-            RequestParam requestParam = AnnotationUtils.getAnnotation(parameter.getParameter(), RequestParam.class);
-            PathVariable pathVariable = AnnotationUtils.getAnnotation(parameter.getParameter(), PathVariable.class);
-
-            if (requestParam == null && pathVariable == null) continue;
+        Set<String>         roles         = null;
+        Set<String>         permissions   = null;
+        Map<String, String> pathVariables = null;
 
-            String                  value = null;
+        for (Binding binding : bindings.computeIfAbsent(handler.getMethod(), m -> compile(handler))) {
+            ParamMetadata paramMetadata = paramPeMap.get(binding.name);
+            if (paramMetadata == null) continue; // 需要保护
 
-            String paramName = parameter.getParameter().getName();
+            List<ParamPermRolesMeta> paramMetaList = paramMetadata.getParamMetaList();
+            if (paramMetaList == null || paramMetaList.isEmpty()) continue;
 
             // 找到参数的值
-            if (pathVariable != null) {
-                if (!pathVariable.name().equals("")) paramName = pathVariable.name();
-                Map<String, String> pathVariables = (Map<String, String>) httpMeta.getRequest().getAttribute(
-                        HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
-                value = pathVariables.get(paramName);
+            String value;
+            if (binding.pathVariable) {
+                if (pathVariables == null) {
+                    pathVariables = (Map<String, String>) httpMeta.getRequest().getAttribute(
+                            HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+                }
+                value = pathVariables == null ? null : pathVariables.get(binding.name);
             } else {
-                if (!requestParam.name().equals("")) paramName = requestParam.name();
-                value = httpMeta.getRequest().getParameter(paramName);
+                value = httpMeta.getRequest().getParameter(binding.name);
             }
 
-            if (value == null) continue; // value不为空
-
-            ParamMetadata paramMetadata = paramPeMap.get(paramName);
-
-            if (paramMetadata == null) continue; // 且需要保护
-
-            List<ParamPermRolesMeta> paramMetaList = paramMetadata.getParamMetaList();
-            if (paramMetaList == null || paramMetaList.isEmpty()) continue;
+            if (value == null) continue; // 且value不为空
 
             if (!httpMeta.hasToken()) {
                 logs("Require Login", httpMeta);
@@ -88,42 +90,36 @@ public class ParameterPermSlot implements Slot {
             if (roles == null) roles = httpMeta.getRoles();
             if (permissions == null) permissions = httpMeta.getPermissions();
 
-            List<ParamPermRolesMeta> resourcesMeta = paramMetaList.stream().filter(
-                    meta -> meta.getResources() != null).collect(Collectors.toList());
-            List<ParamPermRolesMeta> rangeMeta = paramMetaList.stream().filter(
-                    meta -> meta.getRange() != null).collect(Collectors.toList());
-
             boolean next_resources = true;
             boolean next_range     = true;
 
-            String                 paramTypeName = parameter.getParameter().getType().getTypeName();
-            ValueMatcher.ValueType valueType     = paramMetadata.getValueMatchType();
+            ValueMatcher.ValueType valueType = paramMetadata.getValueMatchType();
 
-            label_resources:
-            for (ParamPermRolesMeta meta : resourcesMeta) {
-                if (ValueMatcher.match(meta.getResources(), value, paramTypeName, valueType)) { // 值是否匹配，若匹配上
+            for (ParamPermRolesMeta meta : paramMetaList) {
+                if (meta.getResources() == null) continue;
+                if (meta._getResourcesMatcher(binding.typeName, valueType).match(value)) { // 值是否匹配，若匹配上
                     if (!CollectionUtils.containsSub(meta.getRequireRoles(), roles)
                             || CollectionUtils.containsSub(meta.getExcludeRoles(), roles)
                             || !CollectionUtils.containsSub(meta.getRequirePermissions(), permissions)
                             || CollectionUtils.containsSub(meta.getExcludePermissions(), permissions)) { // 判断是否权限匹配
                         // 但是如果值匹配上但没有对应role，则不让通过
                         next_resources = false;
-                        break label_resources;
+                        break;
                     }
                 }
             }
 
             boolean flag = false;
-            label_range:
-            for (ParamPermRolesMeta meta : rangeMeta) {
+            for (ParamPermRolesMeta meta : paramMetaList) {
+                if (meta.getRange() == null) continue;
                 if (CollectionUtils.containsSub(meta.getRequireRoles(), roles)
                         || !CollectionUtils.containsSub(meta.getExcludeRoles(), roles)
                         || CollectionUtils.containsSub(meta.getRequirePermissions(), permissions)
                         || !CollectionUtils.containsSub(meta.getExcludePermissions(), permissions)) { // 判断是否权限匹配
                     next_range = false; // 如果有匹配上过role，那么就不能无损通过，则需要判断值是否在内
-                    if (ValueMatcher.match(meta.getRange(), value, paramTypeName, valueType)) {
+                    if (meta._getRangeMatcher(binding.typeName, valueType).match(value)) {
                         flag = true; // 有一个匹配上就让过
-                        break label_range;
+                        break;
                     }
                 }
             }
@@ -137,5 +133,37 @@ public class ParameterPermSlot implements Slot {
         }
     }
 
+    private static Binding[] compile(HandlerMethod handler) {
+        List<Binding> list = new ArrayList<>();
+        for (MethodParameter parameter : handler.getMethodParameters()) {
+            RequestParam requestParam = AnnotationUtils.getAnnotation(parameter.getParameter(), RequestParam.class);
+            PathVariable pathVariable = AnnotationUtils.getAnnotation(parameter.getParameter(), PathVariable.class);
+
+            if (requestParam == null && pathVariable == null) continue;
+
+            String paramName = parameter.getParameter().getName();
+            if (pathVariable != null) {
+                if (!pathVariable.name().equals("")) paramName = pathVariable.name();
+            } else {
+                if (!requestParam.name().equals("")) paramName = requestParam.name();
+            }
+            list.add(new Binding(paramName, pathVariable != null, parameter.getParameter().getType().getTypeName()));
+        }
+        return list.toArray(new Binding[0]);
+    }
+
+    private static final class Binding {
+        private final String  name;
+        private final boolean pathVariable;
+        private final String  typeName;
+
+        private Binding(String name,
+                        boolean pathVariable,
+                        String typeName) {
+            this.name         = name;
+            this.pathVariable = pathVariable;
+            this.typeName     = typeName;
+        }
+    }
 
 }
@@ -4,13 +4,15 @@ import cn.omisheep.authz.annotation.RateLimit;
 import cn.omisheep.authz.core.AuthzProperties;
 import cn.omisheep.authz.core.ExceptionStatus;
 import cn.omisheep.authz.core.LogLevel;
+import cn.omisheep.authz.core.auth.ipf.AssociatedBans;
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
 import cn.omisheep.authz.core.auth.ipf.Httpd;
 import cn.omisheep.authz.core.auth.ipf.LimitMeta;
+import cn.omisheep.authz.core.auth.ipf.RedisRateLimiter;
 import cn.omisheep.authz.core.auth.ipf.RequestMeta;
+import cn.omisheep.authz.core.auth.ipf.RoutePolicy;
 import cn.omisheep.authz.core.msg.RequestMessage;
-import cn.omisheep.authz.core.util.RedisUtils;
-import cn.omisheep.commons.util.Async;
+import cn.omisheep.authz.core.msg.RequestMessagePublisher;
 import org.springframework.web.method.HandlerMethod;
 
 import static cn.omisheep.authz.annotation.RateLimit.CheckType.IP;
@@ -23,10 +25,17 @@ import static cn.omisheep.authz.annotation.RateLimit.CheckType.USER_ID;
 @Order(10)
 public class RateLimitSlot implements Slot {
 
-    private final AuthzProperties properties;
+    private final AuthzProperties         properties;
+    private final RequestMessagePublisher publisher;
 
     public RateLimitSlot(AuthzProperties properties) {
         this.properties = properties;
+        this.publisher  = RequestMessagePublisher.of(properties.getCache());
+    }
+
+    @Override
+    public boolean support(RoutePolicy routePolicy) {
+        return routePolicy.getLimitMeta() != null || routePolicy.getAssociatedBans().length > 0;
     }
 
     @Override
@@ -38,7 +47,8 @@ public class RateLimitSlot implements Slot {
         String    method     = httpMeta.getMethod();
         String    path       = httpMeta.getServletPath();
         String    api        = httpMeta.getApi();
-        LimitMeta limitMeta  = Httpd.getLimitMetadata(method, api);
+        RoutePolicy routePolicy = httpMeta.getRoutePolicy();
+        LimitMeta limitMeta  = routePolicy.getLimitMeta();
         Object    userId     = null;
         String    deviceType = null;
         String    deviceId   = null;
@@ -50,6 +60,17 @@ public class RateLimitSlot implements Slot {
             clientId   = httpMeta.getToken().getClientId();
         }
 
+        for (AssociatedBans.Group group : routePolicy.getAssociatedBans()) {
+            String key = group.getCheckType().equals(IP) ? ip : userId == null ? null : userId.toString();
+            if (key != null && group.isBanned(key, now)) {
+                httpMeta.log(LogLevel.WARN,
+                             "「请求频繁、{}封锁(关联)」\t method: [{}], api: [{}] , path: [{}] , ip : [{}] , clientId : [{}] , userId : [{}] , deviceType: [{}] , deviceId: [{}] ",
+                             group.getCheckType(), method, api, path, ip, clientId, userId, deviceType, deviceId);
+                error.error(ExceptionStatus.REQUEST_REPEAT);
+                return;
+            }
+        }
+
         if (limitMeta == null) {
             httpMeta.log(LogLevel.INFO,
                          "「普通访问」\t method: [{}], api: [{}] , path: [{}] , ip : [{}] , clientId : [{}] , userId : [{}] , deviceType: [{}] , deviceId: [{}] ",
@@ -57,15 +78,43 @@ public class RateLimitSlot implements Slot {
             return;
         }
 
-        if (properties.getCache().isEnableRedis()) {
-            RequestMessage requestMessage = new RequestMessage(method, api, ip, userId, now);
-            Async.run(() -> RedisUtils.publish(RequestMessage.CHANNEL, requestMessage));
+        RateLimit.CheckType checkType = limitMeta.getCheckType();
+
+        if (limitMeta.isRedisBackend(properties.getCache()) && !(checkType.equals(USER_ID) && userId == null)) {
+            String                  key    = checkType.equals(IP) ? ip : userId.toString();
+            RedisRateLimiter.Result result = RedisRateLimiter.request(method, api, key, now, limitMeta);
+            if (result != null) {
+                if (result.isRelived()) {
+                    httpMeta.log(LogLevel.INFO,
+                                 "「解除{}封禁(解封)」\t method: [{}], api: [{}] , path: [{}] , ip : [{}] , clientId : [{}] , userId : [{}] , deviceType: [{}] , deviceId: [{}] ",
+                                 checkType, method, api, path, ip, clientId, userId, deviceType, deviceId);
+                    RequestMeta.notifyRelive(method, api, ip, userId, limitMeta);
+                }
+                if (result.isAllowed()) {
+                    httpMeta.log(LogLevel.INFO,
+                                 "「普通访问(正常)」\t method: [{}], api: [{}] , path: [{}] , ip : [{}] , clientId : [{}] , userId : [{}] , deviceType: [{}] , deviceId: [{}] ",
+                                 method, api, path, ip, clientId, userId, deviceType, deviceId);
+                    return;
+                }
+                if (result.isNewlyBanned()) {
+                    RequestMeta.notifyForbid(method, api, ip, userId, limitMeta, result.getReliveTime());
+                }
+                httpMeta.log(LogLevel.WARN,
+                             "「请求频繁、{}封锁({})」\t method: [{}], api: [{}] , path: [{}] , ip : [{}] , clientId : [{}] , userId : [{}] , deviceType: [{}] , deviceId: [{}] ",
+                             checkType, result.isNewlyBanned() ? "封禁" : "拒绝", method, api, path, ip, clientId,
+                             userId, deviceType, deviceId);
+                error.error(ExceptionStatus.REQUEST_REPEAT);
+                return;
+            }
+            // redis不可用时退化为本地计数
         }
 
-        RateLimit.CheckType checkType = limitMeta.getCheckType();
+        if (publisher != null) {
+            publisher.publish(new RequestMessage(method, api, ip, userId, now));
+        }
 
-        Httpd.RequestPool ipRequestPool     = Httpd.getIpRequestPools(api, method);
-        Httpd.RequestPool userIdRequestPool = Httpd.getUserIdRequestPool(api, method);
+        Httpd.RequestPool ipRequestPool     = routePolicy.getIpRequestPool();
+        Httpd.RequestPool userIdRequestPool = routePolicy.getUserIdRequestPool();
 
         if ((checkType.equals(USER_ID) && userId == null) || ipRequestPool == null || userIdRequestPool == null) {
             httpMeta.log(LogLevel.INFO,
@@ -94,17 +143,18 @@ public class RateLimitSlot implements Slot {
             }
         }
         if (requestMeta == null) {
-            if (checkType.equals(IP)) {
-                ipRequestPool.put(ip, new RequestMeta(now, ip, null));
-            } else {
-                userIdRequestPool.put(userId.toString(), new RequestMeta(now, null, userId));
-            }
+            // 并发的首次请求只保留一个RequestMeta，其余按普通请求计入窗口
+            requestMeta = checkType.equals(IP)
+                          ? ipRequestPool.putIfAbsent(ip, new RequestMeta(now, ip, null, limitMeta))
+                          : userIdRequestPool.putIfAbsent(userId.toString(),
+                                                          new RequestMeta(now, null, userId, limitMeta));
+        }
+        if (requestMeta == null) {
             httpMeta.log(LogLevel.INFO,
                          "「普通访问(首次)」\t method: [{}], api: [{}] , path: [{}] ,  ip : [{}] , clientId : [{}] , userId : [{}] , deviceType: [{}] , deviceId: [{}] ",
                          method, api, path, ip, clientId, userId, deviceType, deviceId);
         } else {
-            if (requestMeta.request(now, limitMeta.getMaxRequests(), limitMeta.getWindow(),
-                                    limitMeta.getMinInterval())) {
+            if (requestMeta.request(now, limitMeta)) {
                 httpMeta.log(LogLevel.INFO,
                              "「普通访问(正常)」\t method: [{}], api: [{}] , path: [{}] , 距上次访问: [{}] , ip : [{}] , clientId : [{}] , userId : [{}] , deviceType: [{}] , deviceId: [{}] ",
                              method, api, path, requestMeta.sinceLastTime(), ip, clientId, userId, deviceType,
@@ -1,6 +1,7 @@
 package cn.omisheep.authz.core.slot;
 
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
+import cn.omisheep.authz.core.auth.ipf.RoutePolicy;
 import org.springframework.web.method.HandlerMethod;
 
 /**
@@ -32,6 +33,18 @@ public interface Slot {
         return false;
     }
 
+    /**
+     * 该slot是否可能对此路由产生影响，返回false时此路由的执行计划中不包含该slot。
+     * 每个路由只在策略重建后判断一次，所以只能依赖于routePolicy以及启动后不再变化的配置，默认包含。
+     * {@link #must()}为true的slot始终包含
+     *
+     * @param routePolicy 路由策略
+     * @return 是否包含在此路由的执行计划中
+     */
+    default boolean support(RoutePolicy routePolicy) {
+        return true;
+    }
+
     void chain(HttpMeta httpMeta,
                HandlerMethod handler,
                Error error);
@@ -1,6 +1,7 @@
 package cn.omisheep.authz.core.slot;
 
 import cn.omisheep.authz.core.auth.deviced.UserDevicesDict;
+import cn.omisheep.authz.core.auth.deviced.UserDevicesDictByCache;
 import cn.omisheep.authz.core.auth.ipf.HttpMeta;
 import cn.omisheep.commons.util.Async;
 import org.springframework.web.method.HandlerMethod;
@@ -12,16 +13,23 @@ import org.springframework.web.method.HandlerMethod;
 public class SuccessSlot implements Slot {
 
     private final UserDevicesDict userDevicesDict;
+    private final boolean         inline;
 
     public SuccessSlot(UserDevicesDict userDevicesDict) {
         this.userDevicesDict = userDevicesDict;
+        this.inline          = userDevicesDict instanceof UserDevicesDictByCache;
     }
 
     @Override
     public void chain(HttpMeta httpMeta,
                       HandlerMethod handler,
                       Error error) {
-        Async.run(() -> userDevicesDict.request(httpMeta));
+        // 内置实现只写入内存，自定义实现可能直接访问存储，仍然异步
+        if (inline) {
+            userDevicesDict.request(httpMeta);
+        } else {
+            Async.run(() -> userDevicesDict.request(httpMeta));
+        }
     }
 
 }
@@ -12,6 +12,9 @@ import cn.omisheep.commons.util.TimeUtils;
 import cn.omisheep.commons.util.UUIDBits;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.io.Encoders;
 import io.jsonwebtoken.security.Keys;
@@ -23,9 +26,9 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import static cn.omisheep.authz.core.config.Constants.*;
-import static io.jsonwebtoken.CompressionCodecs.GZIP;
 import static io.jsonwebtoken.SignatureAlgorithm.HS256;
 import static io.jsonwebtoken.SignatureAlgorithm.NONE;
 
@@ -44,9 +47,15 @@ public class TokenHelper extends BaseHelper {
     private static final SecretKey secretKey;
 
     private static final SignatureAlgorithm alg;
-    private static final CompressionCodec   codec = GZIP;
+    private static final CompressionCodec   codec;
     private static final int                tokenIdBits;
     private static final String             prefix;
+    private static final JwtParser          parser;
+
+    /**
+     * token字符串 -> 验证通过的AccessToken，为null时不缓存
+     */
+    private static final Cache<String, AccessToken> accessTokenCache;
 
     private TokenHelper() {
         throw new UnsupportedOperationException();
@@ -56,6 +65,7 @@ public class TokenHelper extends BaseHelper {
         AuthzProperties.TokenConfig token = properties.getToken();
         String                      key   = token.getKey();
         tokenIdBits = token.getIdBits();
+        codec       = compressionCodec(token.getCompression());
         if (key == null || key.equals("")) {
             secretKey = null;
             alg       = NONE;
@@ -73,7 +83,7 @@ public class TokenHelper extends BaseHelper {
         String    prefix1;
         JwsHeader jwsHeader = Jwts.jwsHeader();
         if (alg != SignatureAlgorithm.NONE) jwsHeader.setAlgorithm(alg.getValue());
-        jwsHeader.setCompressionAlgorithm(codec.getAlgorithmName());
+        if (codec != null) jwsHeader.setCompressionAlgorithm(codec.getAlgorithmName());
         try {
             byte[] bytes = new ObjectMapper().writeValueAsBytes(jwsHeader);
             prefix1 = Encoders.BASE64URL.encode(bytes) + ".";
@@ -87,6 +97,31 @@ public class TokenHelper extends BaseHelper {
         accessTime  = TimeUtils.parseTimeValue(token.getAccessTime());
         refreshTime = TimeUtils.parseTimeValue(token.getRefreshTime());
         expire      = (int) (accessTime / 1000);
+
+        JwtParserBuilder jwtParserBuilder = Jwts.parserBuilder();
+        if (hasKey()) jwtParserBuilder.setSigningKey(secretKey);
+        parser = jwtParserBuilder.build();
+
+        if (token.getParsedTokenCacheSize() > 0) {
+            accessTokenCache = Caffeine.newBuilder()
+                    .maximumSize(token.getParsedTokenCacheSize())
+                    .expireAfter(new AccessTokenExpiry())
+                    .build();
+        } else {
+            accessTokenCache = null;
+        }
+    }
+
+    private static CompressionCodec compressionCodec(AuthzProperties.TokenConfig.Compression compression) {
+        if (compression == null) return null;
+        switch (compression) {
+            case GZIP:
+                return CompressionCodecs.GZIP;
+            case DEFLATE:
+                return CompressionCodecs.DEFLATE;
+            default:
+                return null;
+        }
     }
 
     public static boolean hasKey() {
@@ -203,7 +238,8 @@ public class TokenHelper extends BaseHelper {
         }
 
         JwtBuilder jwtBuilder = Jwts.builder().setClaims(claims) // 设置 claims
-                .setId(accessTokenId).compressWith(codec).setExpiration(expiresAt);
+                .setId(accessTokenId).setExpiration(expiresAt);
+        if (codec != null) jwtBuilder.compressWith(codec);
         if (hasKey()) {
             jwtBuilder.signWith(secretKey, alg);
         }
@@ -219,7 +255,8 @@ public class TokenHelper extends BaseHelper {
         claims.put(USER_ID, accessToken.getUserId());
         claims.put(CLIENT_ID, accessToken.getClientId());
         JwtBuilder jwtBuilder = Jwts.builder().setClaims(claims) // 设置 claims
-                .setId(accessToken.getId()).setExpiration(expiresAt).compressWith(codec);
+                .setId(accessToken.getId()).setExpiration(expiresAt);
+        if (codec != null) jwtBuilder.compressWith(codec);
         if (hasKey()) {
             jwtBuilder.signWith(secretKey, alg);
         }
@@ -308,9 +345,7 @@ public class TokenHelper extends BaseHelper {
 
     private static Claims parseToken(String val) {
         if (val == null || val.equals("")) return null;
-        JwtParserBuilder jwtParserBuilder = Jwts.parserBuilder();
-        if (hasKey()) jwtParserBuilder.setSigningKey(secretKey);
-        return jwtParserBuilder.build().parseClaimsJws(prefix + val).getBody();
+        return parser.parseClaimsJws(prefix + val).getBody();
     }
 
     /**
@@ -321,17 +356,66 @@ public class TokenHelper extends BaseHelper {
      * @throws AuthzException e
      */
     public static AccessToken parseAccessToken(String accessToken) throws TokenException {
+        if (accessTokenCache != null && accessToken != null) {
+            AccessToken cached = accessTokenCache.getIfPresent(accessToken);
+            if (cached != null) {
+                if (cached.getExpiresAt() > TimeUtils.nowTime()) return cached;
+                accessTokenCache.invalidate(accessToken); // 已过期，重新解析以抛出ExpiredJwtException
+            }
+        }
         Claims claims = parseToken(accessToken);
         if (claims == null || claims.get(ID, String.class) == null) {
             throw new TokenException();
         }
-        return new AccessToken(claims.get(ID, String.class), accessToken, claims.getId(), null,
+        AccessToken token = new AccessToken(claims.get(ID, String.class), accessToken, claims.getId(), null,
                                claims.getExpiration().getTime(),
                                GrantType.grantType(claims.get(GRANT_TYPE, String.class)),
                                claims.get(CLIENT_ID, String.class),
                                claims.get(SCOPE, String.class),
                                claims.get(USER_ID), claims.get(DEVICE_TYPE, String.class),
                                claims.get(DEVICE_ID, String.class));
+        if (accessTokenCache != null) accessTokenCache.put(accessToken, token);
+        return token;
+    }
+
+    /**
+     * 已失效（退出登录、被挤下线等）的token从解析缓存中移除
+     *
+     * @param accessToken accessToken
+     */
+    public static void evictAccessToken(AccessToken accessToken) {
+        if (accessTokenCache != null && accessToken != null && accessToken.getToken() != null) {
+            accessTokenCache.invalidate(accessToken.getToken());
+        }
+    }
+
+    /**
+     * 缓存中只保存验签通过的结果，登录状态、是否被挤下线以及黑名单等仍在每次请求时校验，
+     * 所以这里只需要按token的过期时间失效
+     */
+    private static class AccessTokenExpiry implements Expiry<String, AccessToken> {
+        @Override
+        public long expireAfterCreate(String key,
+                                      AccessToken value,
+                                      long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(value.getExpiresAt() - TimeUtils.nowTime(), 0));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key,
+                                      AccessToken value,
+                                      long currentTime,
+                                      long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key,
+                                    AccessToken value,
+                                    long currentTime,
+                                    long currentDuration) {
+            return currentDuration;
+        }
     }
 
     /**
@@ -56,48 +56,202 @@ public class ArgsParser {
     }
 
     public static String parse(DataPermRolesMeta dataPermRolesMeta) {
-        StringBuilder stringBuilder = new StringBuilder();
-        String        condition     = dataPermRolesMeta.getCondition();
-        int           index         = 0;
-        int           i             = 0;
-        char          op            = '#';
-        while (index != -1) {
-            if (i % 2 == 0) {
-                int k = condition.indexOf("{", index);
-                if (k != -1) {
-                    char o;
-                    if (k - 1 < 0) {
-                        o = '#';
-                    } else {o = condition.charAt(k - 1);}
-                    if (o == '#' || o == '$') {
-                        op = o;
-                        stringBuilder.append(condition, index, k - 1);
-                    } else {
-                        stringBuilder.append(condition, index, k);
-                    }
-                    index = k;
-                } else {
-                    if (condition.indexOf("}", index) != -1) {
-                        return null;
-                    } else {
-                        if (stringBuilder.length() == 0) return condition;
-                        return reduce(stringBuilder.append(condition, index, condition.length()).toString());
-                    }
-                }
+        return dataPermRolesMeta._getTemplate().render();
+    }
+
+    /**
+     * 将condition编译为 字面量片段 + 参数占位 的模板，argsMap中的常量参数在此时完成类型转换，
+     * 嵌套引用的参数也在此时解析为调用链，渲染时只需求值参数并拼接。
+     *
+     * @param dataPermRolesMeta 数据权限
+     * @return 模板，condition格式错误时渲染结果为null
+     */
+    public static Template compile(DataPermRolesMeta dataPermRolesMeta) {
+        String condition = dataPermRolesMeta.getCondition();
+        if (condition == null) return Template.MALFORMED;
+        List<String>      literals     = new ArrayList<>();
+        List<Placeholder> placeholders = new ArrayList<>();
+        StringBuilder     literal      = new StringBuilder();
+        int               index        = 0;
+        char              op           = '#';
+        while (true) {
+            int k = condition.indexOf("{", index);
+            if (k == -1) {
+                if (condition.indexOf("}", index) != -1) return Template.MALFORMED;
+                literals.add(literal.append(condition, index, condition.length()).toString());
+                break;
+            }
+            char o = k - 1 < 0 ? '#' : condition.charAt(k - 1);
+            if (o == '#' || o == '$') {
+                op = o;
+                if (k > index) literal.append(condition, index, k - 1);
             } else {
-                int k = condition.indexOf("}", index);
-                if (k != -1) {
-                    String   item  = condition.substring(index + 1, k);
-                    String[] trace = item.split("\\.");
-                    stringBuilder.append(parseObject(op, trace, ref(trace[0], dataPermRolesMeta)));
-                    index = k + 1;
-                } else {
-                    return null;
+                literal.append(condition, index, k);
+            }
+            int e = condition.indexOf("}", k);
+            if (e == -1) return Template.MALFORMED;
+            String[] trace = condition.substring(k + 1, e).split("\\.");
+            literals.add(literal.toString());
+            literal.setLength(0);
+            placeholders.add(new Placeholder(op, trace,
+                                             bind(trace[0], dataPermRolesMeta.getArgsMap(), new HashSet<>())));
+            index = e + 1;
+        }
+        return new Template(condition, literals.toArray(new String[0]), placeholders.toArray(new Placeholder[0]));
+    }
+
+    private static Binding bind(String argName,
+                                Map<String, List<String>> argsMap,
+                                Set<String> visiting) {
+        List<String> list = argsMap == null ? null : argsMap.get(argName);
+        if (list == null || list.isEmpty()) return () -> argsHandle(argName);
+        if (!visiting.add(argName)) return fail(new RuntimeException("参数循环引用: " + argName));
+        List<Binding> bindings = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            Matcher matcher = c.matcher(list.get(i));
+            if (matcher.find()) {
+                bindings.add(bind(matcher.group(1), argsMap, visiting));
+            } else {
+                List<Class<?>> paramType = ArgsHandler.argParameterList(argName);
+                if (paramType == null) {
+                    bindings.add(fail(new RuntimeException("参数个数不匹配")));
+                    break;
+                }
+                if (i >= paramType.size()) {
+                    bindings.add(fail(new IndexOutOfBoundsException("参数个数不匹配")));
+                    break;
+                }
+                Class<?> aClass = paramType.get(i);
+                try {
+                    Object constant = aClass.getConstructor(String.class).newInstance(list.get(i));
+                    bindings.add(() -> constant);
+                } catch (InstantiationException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                    LogUtils.error(e);
                 }
             }
-            i++;
         }
-        return null;
+        visiting.remove(argName);
+        Binding[] args = bindings.toArray(new Binding[0]);
+        return () -> {
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                values[i] = args[i].resolve();
+            }
+            return argsHandle(argName, values);
+        };
+    }
+
+    private static Binding fail(RuntimeException e) {
+        return () -> {
+            throw e;
+        };
+    }
+
+    /**
+     * 编译后的condition，不可变，condition或argsMap变化时由{@link DataPermRolesMeta}重新编译
+     */
+    public static final class Template {
+
+        private static final Template MALFORMED = new Template(null, null, null);
+
+        private final String        condition;
+        private final String[]      literals;
+        private final Placeholder[] placeholders;
+
+        private Template(String condition,
+                         String[] literals,
+                         Placeholder[] placeholders) {
+            this.condition    = condition;
+            this.literals     = literals;
+            this.placeholders = placeholders;
+        }
+
+        /**
+         * @return 替换参数后的条件，condition格式错误时返回null
+         */
+        public String render() {
+            if (condition == null) return null;
+            if (placeholders.length == 0) return condition;
+            StringBuilder stringBuilder = new StringBuilder(condition.length() + 16);
+            for (int i = 0; i < placeholders.length; i++) {
+                stringBuilder.append(literals[i]).append(placeholders[i].render());
+            }
+            if (stringBuilder.length() == 0) return condition;
+            return reduce(stringBuilder.append(literals[placeholders.length]).toString());
+        }
+
+        /**
+         * @return condition格式错误
+         */
+        public boolean isMalformed() {
+            return condition == null;
+        }
+
+        /**
+         * @return 参数个数
+         */
+        public int arity() {
+            return condition == null ? 0 : placeholders.length;
+        }
+
+        /**
+         * 参数依次替换为 {@link #marker(int)}，与具体用户无关，可以用作缓存
+         *
+         * @param first 第一个参数的序号
+         * @return 参数替换为标记后的条件，condition格式错误时返回null
+         */
+        public String skeleton(int first) {
+            if (condition == null) return null;
+            if (placeholders.length == 0) return condition;
+            StringBuilder stringBuilder = new StringBuilder(condition.length() + 16 * placeholders.length);
+            for (int i = 0; i < placeholders.length; i++) {
+                stringBuilder.append(literals[i]).append(marker(first + i));
+            }
+            return stringBuilder.append(literals[placeholders.length]).toString();
+        }
+
+        /**
+         * @return 当前请求下每个参数的值，与 {@link #skeleton(int)} 中的标记一一对应
+         */
+        public String[] renderArgs() {
+            if (condition == null) return new String[0];
+            String[] args = new String[placeholders.length];
+            for (int i = 0; i < placeholders.length; i++) {
+                args[i] = placeholders[i].render();
+            }
+            return args;
+        }
+
+        /**
+         * @param i 参数序号
+         * @return 参数标记，可被sql解析为列名
+         */
+        public static String marker(int i) {
+            return "__authz_arg_" + i + "__";
+        }
+    }
+
+    private static final class Placeholder {
+        private final char     op;
+        private final String[] trace;
+        private final Binding  binding;
+
+        private Placeholder(char op,
+                            String[] trace,
+                            Binding binding) {
+            this.op      = op;
+            this.trace   = trace;
+            this.binding = binding;
+        }
+
+        private String render() {
+            return parseObject(op, trace, binding.resolve());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Binding {
+        Object resolve();
     }
 
     private static String reduce(String s) {
@@ -126,33 +280,6 @@ public class ArgsParser {
         return builder.toString();
     }
 
-    private static Object ref(String argName,
-                              DataPermRolesMeta dataPermRolesMeta) {
-        Map<String, List<String>> argsMap = dataPermRolesMeta.getArgsMap();
-        if (argsMap == null) return argsHandle(argName);
-        List<String> list = dataPermRolesMeta.getArgsMap().get(argName);
-        if (list == null || list.isEmpty()) return argsHandle(argName);
-        ArrayList<Object> argsList = new ArrayList<>();
-        for (int i = 0; i < list.size(); i++) {
-            Matcher matcher = c.matcher(list.get(i));
-            if (matcher.find()) {
-                argsList.add(ref(matcher.group(1), dataPermRolesMeta));
-            } else {
-                List<Class<?>> paramType = ArgsHandler.argParameterList(argName);
-                if (paramType == null) {
-                    throw new RuntimeException("参数个数不匹配");
-                }
-                Class<?> aClass = paramType.get(i);
-                try {
-                    argsList.add(aClass.getConstructor(String.class).newInstance(list.get(i)));
-                } catch (InstantiationException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-                    LogUtils.error(e);
-                }
-            }
-        }
-        return argsHandle(argName, argsList.toArray());
-    }
-
     private static String parseObject(char op,
                                       String[] trace,
                                       Object value) {
@@ -0,0 +1,118 @@
+package cn.omisheep.authz.core.util;
+
+import org.springframework.lang.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 字段setter缓存，每个 (类型, 字段) 只解析一次为 {@link MethodHandle}，
+ * 用于数据权限中对结果集逐行置空字段。
+ * <p>
+ * 字段不存在、为static、final或基本类型时无法置空，解析时记录一次日志，之后直接跳过。
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public class FieldSetters {
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * 无法置空的字段占位，ConcurrentHashMap不允许null值
+     */
+    private static final MethodHandle NONE = MethodHandles.constant(Object.class, null);
+
+    private static final Map<Class<?>, Map<String, MethodHandle>> setters = new ConcurrentHashMap<>();
+
+    private FieldSetters() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param type      类型
+     * @param fieldName 字段名，包括父类中声明的字段
+     * @return (Object, Object)void 的setter，无法置空时返回null
+     */
+    @Nullable
+    public static MethodHandle setter(Class<?> type,
+                                      String fieldName) {
+        MethodHandle handle = setters.computeIfAbsent(type, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(fieldName, name -> resolve(type, name));
+        return handle == NONE ? null : handle;
+    }
+
+    /**
+     * 将obj中的字段置为null，obj为集合时对其中每个元素置空
+     *
+     * @param type       结果类型
+     * @param fieldNames 需要置空的字段
+     * @param obj        单个对象或者集合
+     */
+    public static void nullify(Class<?> type,
+                               Iterable<String> fieldNames,
+                               Object obj) {
+        List<MethodHandle> list = new ArrayList<>();
+        for (String fieldName : fieldNames) {
+            MethodHandle handle = setter(type, fieldName);
+            if (handle != null) list.add(handle);
+        }
+        if (list.isEmpty()) return;
+        MethodHandle[] handles = list.toArray(new MethodHandle[0]);
+
+        if (obj instanceof Iterable) {
+            for (Object o : (Iterable<?>) obj) {
+                nullify(type, handles, o);
+            }
+        } else {
+            nullify(type, handles, obj);
+        }
+    }
+
+    private static void nullify(Class<?> type,
+                                MethodHandle[] handles,
+                                Object o) {
+        if (!type.isInstance(o)) return;
+        for (int i = 0; i < handles.length; i++) {
+            try {
+                handles[i].invokeExact(o, (Object) null);
+            } catch (Throwable e) {
+                LogUtils.error(e);
+            }
+        }
+    }
+
+    private static MethodHandle resolve(Class<?> type,
+                                        String fieldName) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            Field field;
+            try {
+                field = c.getDeclaredField(fieldName);
+            } catch (NoSuchFieldException e) {
+                continue;
+            }
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || field.getType().isPrimitive()) {
+                LogUtils.warn("{}.{} 不能置空，已跳过", type.getName(), fieldName);
+                return NONE;
+            }
+            try {
+                field.setAccessible(true);
+                return MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+            } catch (Exception e) {
+                LogUtils.error(e);
+                return NONE;
+            }
+        }
+        LogUtils.warn("{} 中不存在字段 {}", type.getName(), fieldName);
+        return NONE;
+    }
+
+}
@@ -16,8 +16,14 @@ import org.springframework.data.redis.connection.lettuce.LettuceClusterConnectio
 import org.springframework.data.redis.connection.lettuce.LettuceConnection;
 import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.time.Duration;
 import java.util.*;
@@ -135,6 +141,27 @@ public class RedisUtils {
         }
     }
 
+    /**
+     * 执行lua脚本，参数与返回值都按字符串序列化
+     *
+     * @param script 脚本
+     * @param keys   KEYS
+     * @param args   ARGV
+     * @return 脚本返回值，出错时返回null
+     * @since 1.2.14
+     */
+    public static <T> T eval(RedisScript<T> script,
+                             List<String> keys,
+                             String... args) {
+        try {
+            return redisTemplate.execute(script, STRING_SERIALIZER, (RedisSerializer<T>) STRING_SERIALIZER, keys,
+                                         (Object[]) args);
+        } catch (Exception e) {
+            LogUtils.debug("redis script error: {}", e.getMessage());
+            return null;
+        }
+    }
+
     // ================================ redisTemplate ================================ //
 
     public static class Obj {
@@ -165,6 +192,34 @@ public class RedisUtils {
             }
         }
 
+        /**
+         * 使用pipeline批量写入，每个key的过期时间相同
+         *
+         * @param map 键值
+         * @param ms  过期时间 毫秒，为{@link cn.omisheep.authz.core.cache.Cache#INFINITE}时永久
+         */
+        public static void set(Map<String, ?> map,
+                               long ms) {
+            try {
+                redisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    public <K, V> Object execute(RedisOperations<K, V> operations) {
+                        ValueOperations<String, Object> ops = (ValueOperations<String, Object>) operations.opsForValue();
+                        map.forEach((k, v) -> {
+                            if (ms == -1) {
+                                ops.set(k, v);
+                            } else {
+                                ops.set(k, v, ms, TimeUnit.MILLISECONDS);
+                            }
+                        });
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                // skip
+            }
+        }
+
         public static Object get(String key) {
             try {
                 return redisTemplate.opsForValue().get(key);
@@ -258,6 +313,7 @@ public class RedisUtils {
 
     private static final RedisTemplate<String, Object> redisTemplate;
     private static final int                           SCAN_COUNT;
+    private static final RedisSerializer<String>       STRING_SERIALIZER = new StringRedisSerializer();
 
     static {
         redisTemplate = AuthzContext.getBean("authzRedisTemplate", RedisTemplate.class);
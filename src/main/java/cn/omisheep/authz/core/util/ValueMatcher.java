@@ -7,10 +7,7 @@ import lombok.SneakyThrows;
 import org.apache.commons.lang.ObjectUtils;
 import org.springframework.lang.NonNull;
 
-import java.util.Collection;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 import static cn.omisheep.authz.core.config.Constants.WILDCARD;
 import static cn.omisheep.authz.core.util.ValueMatcher.ValueType.EQUALS;
@@ -150,6 +147,152 @@ public class ValueMatcher {
         }
     }
 
+    /**
+     * 将resources预编译为匹配器，字面量在此时完成类型转换，只有包含#{}的参数在匹配时求值
+     *
+     * @param resources     resources或range
+     * @param valueTypeName 参数类型
+     * @param valueType     参数的匹配类型
+     * @return 匹配器，与{@link #match(Set, String, String, ValueType)}结果一致
+     */
+    @SuppressWarnings("all")
+    public static Matcher compile(Set<String> resources,
+                                  String valueTypeName,
+                                  ValueType valueType) {
+        boolean            any       = false;
+        Set<Object>        values    = new HashSet<>();
+        List<Comparable[]> intervals = new ArrayList<>();
+        List<String>       dynamic   = new ArrayList<>();
+        if (resources != null) {
+            for (String resource : resources) {
+                if (resource == null) continue;
+                if (resource.equals(WILDCARD)) {
+                    any = true;
+                    continue;
+                }
+                if (isDynamic(resource)) {
+                    dynamic.add(resource);
+                    continue;
+                }
+                try {
+                    if (valueType == EQUALS) {
+                        Object value = parse(resource, valueTypeName);
+                        if (value != null) values.add(value);
+                    } else if (valueType == RANGE) {
+                        String[] split = resource.split("-");
+                        if (split.length == 2) {
+                            Object v1 = parse(split[0], valueTypeName);
+                            Object v2 = parse(split[1], valueTypeName);
+                            if (v1 != null && v2 != null && checkType(v1) == RANGE && checkType(v2) == RANGE) {
+                                intervals.add(new Comparable[]{(Comparable) v1, (Comparable) v2});
+                            }
+                        } else if (split.length == 1) {
+                            Object value = parse(split[0], valueTypeName);
+                            if (value != null) values.add(value);
+                        }
+                    }
+                } catch (Exception e) {
+                    // 格式错误的字面量不会匹配任何值
+                }
+            }
+        }
+        return new Matcher(any, valueTypeName, valueType, values, intervals, dynamic);
+    }
+
+    private static boolean isDynamic(String resource) {
+        int k = resource.indexOf('{');
+        return k != -1 && resource.indexOf('}', k) != -1;
+    }
+
+    /**
+     * 预编译的resources/range。EQUALS为哈希集合，RANGE为按左端点排序、合并后的区间，二分查找
+     */
+    @SuppressWarnings("all")
+    public static final class Matcher {
+        private final boolean      any;
+        private final String       valueTypeName;
+        private final ValueType    valueType;
+        private final Set<Object>  values;
+        private final Comparable[] lows;
+        private final Comparable[] highs;
+        private final String[]     dynamic;
+
+        private Matcher(boolean any,
+                        String valueTypeName,
+                        ValueType valueType,
+                        Set<Object> values,
+                        List<Comparable[]> intervals,
+                        List<String> dynamic) {
+            this.any           = any;
+            this.valueTypeName = valueTypeName;
+            this.valueType     = valueType;
+            this.values        = values.isEmpty() ? Collections.emptySet() : values;
+            this.dynamic       = dynamic.toArray(new String[0]);
+
+            intervals.removeIf(i -> i[0].compareTo(i[1]) > 0);
+            intervals.sort((a, b) -> a[0].compareTo(b[0]));
+            List<Comparable[]> merged = new ArrayList<>();
+            for (Comparable[] interval : intervals) {
+                Comparable[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && interval[0].compareTo(last[1]) <= 0) {
+                    if (interval[1].compareTo(last[1]) > 0) last[1] = interval[1];
+                } else {
+                    merged.add(new Comparable[]{interval[0], interval[1]});
+                }
+            }
+            this.lows  = new Comparable[merged.size()];
+            this.highs = new Comparable[merged.size()];
+            for (int i = 0; i < merged.size(); i++) {
+                lows[i]  = merged.get(i)[0];
+                highs[i] = merged.get(i)[1];
+            }
+        }
+
+        public String getValueTypeName() {
+            return valueTypeName;
+        }
+
+        /**
+         * @param rawValue 请求中参数的原始值
+         * @return 是否匹配任意一个resource
+         */
+        public boolean match(String rawValue) {
+            if (any) return true;
+            if (!values.isEmpty() || lows.length > 0) {
+                Object value;
+                try {
+                    value = parse(rawValue, valueTypeName);
+                } catch (Exception e) {
+                    value = null;
+                }
+                if (value != null) {
+                    if (values.contains(value)) return true;
+                    if (lows.length > 0 && inRange((Comparable) value)) return true;
+                }
+            }
+            for (String resource : dynamic) {
+                if (ValueMatcher.match(resource, rawValue, valueTypeName, valueType)) return true;
+            }
+            return false;
+        }
+
+        private boolean inRange(Comparable value) {
+            int lo    = 0;
+            int hi    = lows.length - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lows[mid].compareTo(value) <= 0) {
+                    found = mid;
+                    lo    = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found != -1 && highs[found].compareTo(value) >= 0;
+        }
+    }
+
     @SneakyThrows
     private static Object parse(String value,
                                 String valueTypeName) {
@@ -9,9 +9,9 @@ import cn.omisheep.authz.core.util.FormatUtils;
 import cn.omisheep.authz.support.entity.Docs;
 import cn.omisheep.authz.support.entity.User;
 import cn.omisheep.authz.support.http.handler.ApiHandler;
-import cn.omisheep.authz.support.util.IPAddress;
 import cn.omisheep.authz.support.util.IPRange;
 import cn.omisheep.authz.support.util.IPRangeMeta;
+import cn.omisheep.authz.support.util.IPRangeTrie;
 import cn.omisheep.authz.support.util.SupportUtils;
 import cn.omisheep.commons.util.TimeUtils;
 import cn.omisheep.commons.util.UUIDBits;
@@ -38,8 +38,8 @@ public class SupportServlet extends HttpServlet {
     private static final String        resourceRootPath = "support/http/dist";
     private static final String        resourcePath     = "support/http/dist" + Constants.DASHBOARD_STATIC_PREFIX;
     private static final String        nopermit         = "support/http/nopermit.html";
-    private final        List<IPRange> allowList        = new ArrayList<>();
-    private final        List<IPRange> denyList         = new ArrayList<>();
+    private final        IPRangeTrie<IPRange> allowList;
+    private final        IPRangeTrie<IPRange> denyList;
     private final        ApiHandler    apiHandler       = new ApiHandler();
     private final        boolean       requireLogin;
     private final        Cache         cache;
@@ -61,17 +61,21 @@ public class SupportServlet extends HttpServlet {
         this.requireLogin = !StringUtils.isEmpty(dashboardConfig.getUsername()) && !StringUtils.isEmpty(
                 dashboardConfig.getPassword()) || !dashboardConfig.getUsers().isEmpty();
 
+        IPRangeTrie<IPRange> allow = new IPRangeTrie<>();
         try {
-            allowList.addAll(IPRangeMeta.parse(dashboardConfig.getAllow()));
+            allow = IPRangeTrie.of(IPRangeMeta.parse(dashboardConfig.getAllow()));
         } catch (Exception e) {
             log.error(e.getMessage(), e);
         }
+        this.allowList = allow;
 
+        IPRangeTrie<IPRange> deny = new IPRangeTrie<>();
         try {
-            denyList.addAll(IPRangeMeta.parse(dashboardConfig.getDeny()));
+            deny = IPRangeTrie.of(IPRangeMeta.parse(dashboardConfig.getDeny()));
         } catch (Exception e) {
             log.error(e.getMessage(), e);
         }
+        this.denyList = deny;
 
         users.addAll(dashboardConfig.getUsers().stream().map(User::new).collect(Collectors.toList()));
         String                                                username    = dashboardConfig.getUsername();
@@ -276,25 +280,8 @@ public class SupportServlet extends HttpServlet {
     }
 
     private boolean isPermittedRequest(String remoteAddress) {
-        boolean ipV6 = remoteAddress != null && remoteAddress.indexOf(':') != -1;
-        if (ipV6) {
-            return "0:0:0:0:0:0:0:1".equals(remoteAddress) || (denyList.size() == 0 && allowList.size() == 0);
-        }
-        IPAddress ipAddress = new IPAddress(remoteAddress);
-        for (IPRange range : denyList) {
-            if (range.isIPAddressInRange(ipAddress)) {
-                return false;
-            }
-        }
-        if (allowList.size() > 0) {
-            for (IPRange range : allowList) {
-                if (range.isIPAddressInRange(ipAddress)) {
-                    return true;
-                }
-            }
-            return false;
-        }
-        return true;
+        if ("0:0:0:0:0:0:0:1".equals(remoteAddress)) return true;
+        return IPRangeTrie.permit(remoteAddress, allowList, denyList);
     }
 
     private void sendRedirect(HttpServletRequest request,
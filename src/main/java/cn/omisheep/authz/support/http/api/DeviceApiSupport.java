@@ -8,7 +8,6 @@ import cn.omisheep.authz.core.auth.ipf.Blacklist;
 import cn.omisheep.authz.core.msg.AuthzModifier;
 import cn.omisheep.authz.support.http.ApiSupport;
 import cn.omisheep.authz.support.http.annotation.*;
-import cn.omisheep.authz.support.util.IPAddress;
 import cn.omisheep.commons.util.TimeUtils;
 import cn.omisheep.web.entity.ResponseResult;
 import lombok.Data;
@@ -171,10 +170,9 @@ public class DeviceApiSupport implements ApiSupport {
             device = AuHelper.getDenyDeviceInfo(info.getUserId(), info.getDeviceType(), info.getDeviceId());
             ip     = AuHelper.getDenyIPInfo(info.getIp());
             if (info.getIp() != null) {
-                IPAddress ipAddress = new IPAddress(info.getIp());
                 iprange = AuHelper.getAllDenyIPRangeInfo()
                         .stream()
-                        .filter(v -> v.getIpRange().isIPAddressInRange(ipAddress))
+                        .filter(v -> v.getIpRange().contains(info.getIp()))
                         .collect(
                                 Collectors.toSet());
             } else {
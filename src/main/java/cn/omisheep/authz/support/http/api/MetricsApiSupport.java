@@ -0,0 +1,51 @@
+package cn.omisheep.authz.support.http.api;
+
+import cn.omisheep.authz.core.AuthzResult;
+import cn.omisheep.authz.core.auth.ipf.Httpd;
+import cn.omisheep.authz.core.cache.Cache;
+import cn.omisheep.authz.core.cache.L2Cache;
+import cn.omisheep.authz.core.interceptor.SqlRewriteCache;
+import cn.omisheep.authz.core.msg.RequestMessagePublisher;
+import cn.omisheep.authz.support.http.ApiSupport;
+import cn.omisheep.authz.support.http.annotation.Get;
+import cn.omisheep.authz.support.http.annotation.Mapping;
+import cn.omisheep.web.entity.ResponseResult;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * @author zhouxinchen
+ * @since 1.2.14
+ */
+@Mapping(value = "/metrics")
+public class MetricsApiSupport implements ApiSupport {
+
+    private final Cache cache;
+
+    public MetricsApiSupport(Cache cache) {
+        this.cache = cache;
+    }
+
+    @Get(value = "/request-pools", desc = "限流请求池的大小以及淘汰数")
+    public ResponseResult<Map<String, Map<String, Map<String, Long>>>> requestPools() {
+        return AuthzResult.SUCCESS.data(Httpd.getRequestPoolMetrics());
+    }
+
+    @Get(value = "/request-sync", desc = "限流请求同步的请求数、redis publish次数以及丢弃数")
+    public ResponseResult<Map<String, Long>> requestSync() {
+        return AuthzResult.SUCCESS.data(RequestMessagePublisher.metrics());
+    }
+
+    @Get(value = "/cache", desc = "L2Cache的读取数、redis加载数、刷新数以及节省的redis读取数")
+    public ResponseResult<Map<String, Long>> cache() {
+        if (!(cache instanceof L2Cache)) return AuthzResult.SUCCESS.data(Collections.emptyMap());
+        return AuthzResult.SUCCESS.data(((L2Cache) cache).metrics());
+    }
+
+    @Get(value = "/sql-rewrite", desc = "数据权限sql改写缓存的命中数、未命中数、淘汰数以及大小")
+    public ResponseResult<Map<String, Map<String, Long>>> sqlRewrite() {
+        return AuthzResult.SUCCESS.data(SqlRewriteCache.getMetrics());
+    }
+
+}
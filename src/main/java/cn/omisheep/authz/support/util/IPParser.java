@@ -0,0 +1,196 @@
+package cn.omisheep.authz.support.util;
+
+/**
+ * 逐字符解析IPv4、IPv6地址，不做字符串切分，解析失败时返回错误标识而不是抛出异常
+ *
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public final class IPParser {
+
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFF00000000L;
+
+    private IPParser() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param s    字符串
+     * @param from 开始位置
+     * @param to   结束位置（不包含）
+     * @return 32位地址（网络字节序），格式错误时返回-1
+     */
+    public static long parseIPv4(String s,
+                                 int from,
+                                 int to) {
+        long result = 0;
+        int  octet  = -1;
+        int  dots   = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) return -1;
+            } else if (c == '.') {
+                if (octet < 0 || ++dots > 3) return -1;
+                result = (result << 8) | octet;
+                octet  = -1;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || dots != 3) return -1;
+        return (result << 8) | octet;
+    }
+
+    /**
+     * 支持 :: 缩写、末尾内嵌IPv4（如 ::ffff:1.2.3.4）以及 %zone 后缀
+     *
+     * @param s    字符串
+     * @param from 开始位置
+     * @param to   结束位置（不包含）
+     * @param out  out[0]为高64位，out[1]为低64位
+     * @return 格式是否正确
+     */
+    public static boolean parseIPv6(String s,
+                                    int from,
+                                    int to,
+                                    long[] out) {
+        int zone = s.indexOf('%', from);
+        if (zone != -1 && zone < to) to = zone;
+        if (to - from >= 2 && s.charAt(from) == '[' && s.charAt(to - 1) == ']') {
+            from++;
+            to--;
+        }
+        int[] groups = new int[8];
+        int   n      = 0;
+        int   gap    = -1;
+        int   i      = from;
+        if (to - from >= 2 && s.charAt(i) == ':') {
+            if (s.charAt(i + 1) != ':') return false;
+            gap = 0;
+            i += 2;
+        }
+        while (i < to) {
+            if (n == 8) return false;
+            int j     = i;
+            int value = 0;
+            while (j < to) {
+                int d = Character.digit(s.charAt(j), 16);
+                if (d < 0) break;
+                value = (value << 4) | d;
+                j++;
+            }
+            if (j < to && s.charAt(j) == '.') {
+                long ipv4 = parseIPv4(s, i, to);
+                if (ipv4 < 0 || n > 6) return false;
+                groups[n++] = (int) (ipv4 >>> 16);
+                groups[n++] = (int) (ipv4 & 0xFFFF);
+                break;
+            }
+            if (j == i || j - i > 4) return false;
+            groups[n++] = value;
+            if (j == to) break;
+            if (s.charAt(j) != ':') return false;
+            if (j + 1 < to && s.charAt(j + 1) == ':') {
+                if (gap >= 0) return false;
+                gap = n;
+                i   = j + 2;
+            } else {
+                i = j + 1;
+                if (i == to) return false;
+            }
+        }
+        if (gap < 0 ? n != 8 : n == 8) return false;
+
+        int  zeros = 8 - n;
+        long high  = 0;
+        long low   = 0;
+        for (int k = 0; k < 8; k++) {
+            long group;
+            if (gap < 0 || k < gap) {
+                group = groups[k];
+            } else if (k < gap + zeros) {
+                group = 0;
+            } else {
+                group = groups[k - zeros];
+            }
+            if (k < 4) {
+                high = (high << 16) | group;
+            } else {
+                low = (low << 16) | group;
+            }
+        }
+        out[0] = high;
+        out[1] = low;
+        return true;
+    }
+
+    /**
+     * 解析IPv4或IPv6地址。IPv4地址（包括 ::ffff:a.b.c.d）放在高32位，out[1]为0
+     *
+     * @param ip  ip
+     * @param out out[0]为高64位，out[1]为低64位
+     * @return 4: IPv4，6: IPv6，0: 格式错误
+     */
+    public static int parse(String ip,
+                            long[] out) {
+        if (ip == null) return 0;
+        if (ip.indexOf(':') == -1) {
+            long ipv4 = parseIPv4(ip, 0, ip.length());
+            if (ipv4 < 0) return 0;
+            out[0] = ipv4 << 32;
+            out[1] = 0;
+            return 4;
+        }
+        if (!parseIPv6(ip, 0, ip.length(), out)) return 0;
+        if (isIPv4Mapped(out[0], out[1])) {
+            out[0] = out[1] << 32;
+            out[1] = 0;
+            return 4;
+        }
+        return 6;
+    }
+
+    /**
+     * @return 是否为 ::ffff:0:0/96 中的地址
+     */
+    public static boolean isIPv4Mapped(long high,
+                                       long low) {
+        return high == 0 && (low & 0xFFFFFFFF00000000L) == IPV4_MAPPED_PREFIX;
+    }
+
+    /**
+     * @param high   地址高64位
+     * @param low    地址低64位
+     * @param netHigh 网络地址高64位
+     * @param netLow  网络地址低64位
+     * @param prefix 前缀长度
+     * @return 地址的前prefix位是否与网络地址相同
+     */
+    public static boolean matches(long high,
+                                  long low,
+                                  long netHigh,
+                                  long netLow,
+                                  int prefix) {
+        if (prefix <= 0) return true;
+        if (prefix <= 64) return ((high ^ netHigh) & mask(prefix)) == 0;
+        return high == netHigh && ((low ^ netLow) & mask(prefix - 64)) == 0;
+    }
+
+    private static long mask(int bits) {
+        return bits >= 64 ? -1L : ~(-1L >>> bits);
+    }
+
+    public static String toIPv6String(long high,
+                                      long low) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < 8; k++) {
+            long word = k < 4 ? high : low;
+            if (k > 0) sb.append(':');
+            sb.append(Long.toHexString((word >>> (48 - (k % 4) * 16)) & 0xFFFF));
+        }
+        return sb.toString();
+    }
+
+}
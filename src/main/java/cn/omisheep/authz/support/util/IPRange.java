@@ -17,6 +17,15 @@ public class IPRange {
     /** extended network prefix */
     private int extendedNetworkPrefix = 0;
 
+    /** IPv6 range, ipAddress and ipSubnetMask are null */
+    private boolean ipv6 = false;
+
+    /** IPv6 address, high 64 bits */
+    private long high = 0;
+
+    /** IPv6 address, low 64 bits */
+    private long low = 0;
+
     public IPRange(String range) {
         parseRange(range);
     }
@@ -63,11 +72,59 @@ public class IPRange {
      * address/extended network prefixs).
      */
     public String toString() {
+        if (ipv6) return IPParser.toIPv6String(high, low) + "/" + extendedNetworkPrefix;
         return ipAddress.toString() + "/" + extendedNetworkPrefix;
     }
 
     // -------------------------------------------------------------------------
 
+    /**
+     * @return Return <code>true</code> if this is an IPv6 range.
+     */
+    public final boolean isIPv6() {
+        return ipv6;
+    }
+
+    /**
+     * IPv4-mapped IPv6 ranges (::ffff:a.b.c.d/96+) are treated as IPv4 ranges.
+     *
+     * @return 4 or 6
+     */
+    final int family() {
+        return !ipv6 || isIPv4Mapped() ? 4 : 6;
+    }
+
+    /**
+     * Return the network address as 128 bits, an IPv4 address is placed in the high 32 bits.
+     *
+     * @return The high 64 bits of the network address.
+     */
+    final long high() {
+        if (!ipv6) return (long) Integer.reverseBytes(ipAddress.ipAddress) << 32;
+        return isIPv4Mapped() ? low << 32 : high;
+    }
+
+    /**
+     * @return The low 64 bits of the network address, always 0 for IPv4.
+     */
+    final long low() {
+        return ipv6 && !isIPv4Mapped() ? low : 0;
+    }
+
+    /**
+     * @return The number of significant bits, 32 or 128 for a single address.
+     */
+    final int prefixLength() {
+        if (ipv6) return isIPv4Mapped() ? extendedNetworkPrefix - 96 : extendedNetworkPrefix;
+        return ipSubnetMask == null ? 32 : extendedNetworkPrefix;
+    }
+
+    private boolean isIPv4Mapped() {
+        return extendedNetworkPrefix >= 96 && IPParser.isIPv4Mapped(high, low);
+    }
+
+    // -------------------------------------------------------------------------
+
     /**
      * Parse the IP range string representation.
      *
@@ -81,6 +138,10 @@ public class IPRange {
 
         int    index     = range.indexOf('/');
         String subnetStr = null;
+        if (range.indexOf(':') != -1) {
+            parseIPv6Range(range, index);
+            return;
+        }
         if (index == -1) {
             ipAddress = new IPAddress(range);
         } else {
@@ -112,6 +173,28 @@ public class IPRange {
         }
     }
 
+    private void parseIPv6Range(String range,
+                                int index) {
+        long[] address = new long[2];
+        if (!IPParser.parseIPv6(range, 0, index == -1 ? range.length() : index, address)) {
+            throw new IllegalArgumentException("Invalid IP range [" + range + "]");
+        }
+        ipv6                  = true;
+        high                  = address[0];
+        low                   = address[1];
+        extendedNetworkPrefix = 128;
+        if (index != -1) {
+            try {
+                extendedNetworkPrefix = Integer.parseInt(range.substring(index + 1));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid IP range [" + range + "]", ex);
+            }
+            if ((extendedNetworkPrefix < 0) || (extendedNetworkPrefix > 128)) {
+                throw new IllegalArgumentException("Invalid IP range [" + range + "]");
+            }
+        }
+    }
+
     // -------------------------------------------------------------------------
 
     /**
@@ -192,6 +275,9 @@ public class IPRange {
      * <code>false</code>.
      */
     public boolean isIPAddressInRange(IPAddress address) {
+        if (ipv6) {
+            return false;
+        }
         if (ipSubnetMask == null) {
             return this.ipAddress.equals(address);
         }
@@ -202,18 +288,33 @@ public class IPRange {
         return result1 == result2;
     }
 
+    /**
+     * Check if the specified IPv4 or IPv6 address is in the encapsulated range.
+     *
+     * @param ip The IP address to be tested.
+     * @return Return <code>true</code> if the specified IP address is in the encapsulated IP range, otherwise return
+     * <code>false</code>.
+     */
+    public boolean contains(String ip) {
+        long[] address = new long[2];
+        int    version = IPParser.parse(ip, address);
+        if (version == 0 || version != family()) return false;
+        return IPParser.matches(address[0], address[1], high(), low(), prefixLength());
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {return true;}
         if (!(o instanceof IPRange)) {return false;}
         IPRange ipRange = (IPRange) o;
-        return getExtendedNetworkPrefix() == ipRange.getExtendedNetworkPrefix() && Objects.equal(ipAddress,
+        return getExtendedNetworkPrefix() == ipRange.getExtendedNetworkPrefix() && ipv6 == ipRange.ipv6
+                && high == ipRange.high && low == ipRange.low && Objects.equal(ipAddress,
                                                                                                  ipRange.ipAddress) && Objects.equal(
                 ipSubnetMask, ipRange.ipSubnetMask);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(ipAddress, ipSubnetMask, getExtendedNetworkPrefix());
+        return Objects.hashCode(ipAddress, ipSubnetMask, getExtendedNetworkPrefix(), high, low);
     }
 }
@@ -0,0 +1,142 @@
+package cn.omisheep.authz.support.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * IP网段的二进制前缀树，IPv4与IPv6各一棵。
+ * <p>
+ * 查询时沿着ip的二进制位向下走，路径上任意一个节点有网段即为命中，
+ * 耗时只与前缀长度有关（IPv4最多32步，IPv6最多128步），与网段数量无关。
+ * IPv4-mapped的IPv6地址（::ffff:a.b.c.d）按IPv4处理。
+ * <p>
+ * 构建完成后只读，可以被多个线程同时查询；修改时应重新构建后整体替换。
+ *
+ * @param <V> 网段附带的值
+ * @author zhouxinchen[1269670415@qq.com]
+ * @since 1.2.14
+ */
+public final class IPRangeTrie<V> {
+
+    private final Node<V> v4 = new Node<>();
+    private final Node<V> v6 = new Node<>();
+    private       int     size;
+
+    /**
+     * @param ranges 网段
+     * @return 以网段本身为值的前缀树
+     */
+    public static IPRangeTrie<IPRange> of(Collection<IPRange> ranges) {
+        IPRangeTrie<IPRange> trie = new IPRangeTrie<>();
+        if (ranges != null) ranges.forEach(range -> trie.add(range, range));
+        return trie;
+    }
+
+    /**
+     * deny中任意网段命中时拒绝，allow不为空时必须命中其中一个网段
+     *
+     * @param ip    ip
+     * @param allow 允许的网段
+     * @param deny  拒绝的网段
+     * @return 是否允许访问
+     */
+    public static boolean permit(String ip,
+                                 IPRangeTrie<?> allow,
+                                 IPRangeTrie<?> deny) {
+        if (deny != null && deny.contains(ip)) return false;
+        return allow == null || allow.isEmpty() || allow.contains(ip);
+    }
+
+    public IPRangeTrie<V> add(IPRange range,
+                              V value) {
+        Node<V> node = range.family() == 4 ? v4 : v6;
+        long    high = range.high();
+        long    low  = range.low();
+        for (int i = 0, len = range.prefixLength(); i < len; i++) {
+            if (bit(high, low, i) == 0) {
+                if (node.zero == null) node.zero = new Node<>();
+                node = node.zero;
+            } else {
+                if (node.one == null) node.one = new Node<>();
+                node = node.one;
+            }
+        }
+        if (node.values == null) node.values = new ArrayList<>(1);
+        node.values.add(value);
+        size++;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param ip ip，格式错误时视为不在任何网段中
+     * @return 是否在任意网段中
+     */
+    public boolean contains(String ip) {
+        return contains(ip, null);
+    }
+
+    /**
+     * @param ip     ip，格式错误时视为不在任何网段中
+     * @param filter 网段的值需要满足的条件，为null时不过滤
+     * @return 是否在任意一个值满足条件的网段中
+     */
+    public boolean contains(String ip,
+                            Predicate<? super V> filter) {
+        if (size == 0 || ip == null) return false;
+        if (ip.indexOf(':') == -1) {
+            long ipv4 = IPParser.parseIPv4(ip, 0, ip.length());
+            return ipv4 >= 0 && find(v4, ipv4 << 32, 0, 32, filter);
+        }
+        long[] address = new long[2];
+        if (!IPParser.parseIPv6(ip, 0, ip.length(), address)) return false;
+        if (IPParser.isIPv4Mapped(address[0], address[1])) {
+            return find(v4, address[1] << 32, 0, 32, filter);
+        }
+        return find(v6, address[0], address[1], 128, filter);
+    }
+
+    private boolean find(Node<V> node,
+                         long high,
+                         long low,
+                         int bits,
+                         Predicate<? super V> filter) {
+        for (int i = 0; ; i++) {
+            if (node.values != null && test(node.values, filter)) return true;
+            if (i == bits) return false;
+            node = bit(high, low, i) == 0 ? node.zero : node.one;
+            if (node == null) return false;
+        }
+    }
+
+    private boolean test(List<V> values,
+                         Predicate<? super V> filter) {
+        if (filter == null) return true;
+        for (V value : values) {
+            if (filter.test(value)) return true;
+        }
+        return false;
+    }
+
+    private static int bit(long high,
+                           long low,
+                           int i) {
+        return (int) (i < 64 ? high >>> (63 - i) : low >>> (127 - i)) & 1;
+    }
+
+    private static final class Node<V> {
+        private Node<V> zero;
+        private Node<V> one;
+        private List<V> values;
+    }
+
+}